@@ -0,0 +1,57 @@
+package ics432.imgapp;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Random;
+
+/**
+ * A helper class that generates the (reproducible) input images used by the benchmarks
+ */
+final class BenchmarkImages {
+
+    private static final long SEED = 432;
+
+    private BenchmarkImages() {
+    }
+
+    /**
+     * Generate an image with smooth gradients plus some noise, so that it compresses
+     * and filters roughly like a photograph. The same size always gives the same image.
+     *
+     * @param width The image width
+     * @param height The image height
+     * @return an image of type TYPE_INT_RGB
+     */
+    static BufferedImage create(int width, int height) {
+        Random random = new Random(SEED);
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int r = (255 * x / width + random.nextInt(32)) & 0xFF;
+                int g = (255 * y / height + random.nextInt(32)) & 0xFF;
+                int b = (128 + (x ^ y) % 64 + random.nextInt(32)) & 0xFF;
+                image.setRGB(x, y, (r << 16) | (g << 8) | b);
+            }
+        }
+        return image;
+    }
+
+    /**
+     * Encode an image as a JPEG file in memory
+     *
+     * @param image The image
+     * @return the JPEG bytes
+     */
+    static byte[] toJpeg(BufferedImage image) {
+        try {
+            ByteArrayOutputStream os = new ByteArrayOutputStream();
+            ImageIO.write(image, "jpg", os);
+            return os.toByteArray();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package ics432.imgapp;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of the work unit hand-off through a BoundedBuffer, with as
+ * many producer threads as consumer threads. Each invocation moves a fixed
+ * number of items, so the score is in items/sec.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class BufferBenchmark {
+
+    private static final int ITEMS = 1 << 16;
+
+    @Param({"Blocking", "Ring/SPIN", "Ring/YIELD", "Ring/PARK"})
+    public String implementation;
+
+    @Param({"1", "4", "16", "32"})
+    public int threads;
+
+    @Param({"1", "16"})
+    public int batch;
+
+    @Param({"16"})
+    public int capacity;
+
+    private ExecutorService executor;
+    private BoundedBuffer<Object> buffer;
+    private final Object item = new Object();
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        executor = Executors.newFixedThreadPool(2 * threads);
+        if (implementation.equals("Blocking")) {
+            buffer = new BlockingBoundedBuffer<>(capacity);
+        } else {
+            buffer = new RingBoundedBuffer<>(capacity,
+                    RingBoundedBuffer.WaitStrategy.valueOf(implementation.substring("Ring/".length())));
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ITEMS)
+    public void handoff() throws InterruptedException {
+        int itemsPerThread = ITEMS / threads;
+        CountDownLatch done = new CountDownLatch(2 * threads);
+        for (int t = 0; t < threads; t++) {
+            executor.execute(() -> {
+                List<Object> items = new ArrayList<>(batch);
+                for (int k = 0; k < batch; k++) {
+                    items.add(item);
+                }
+                try {
+                    for (int n = 0; n < itemsPerThread; n += batch) {
+                        buffer.putAll(items.subList(0, Math.min(batch, itemsPerThread - n)));
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                done.countDown();
+            });
+            executor.execute(() -> {
+                List<Object> items = new ArrayList<>(batch);
+                try {
+                    int taken = 0;
+                    while (taken < itemsPerThread) {
+                        items.clear();
+                        taken += buffer.drainTo(items, Math.min(batch, itemsPerThread - taken));
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                done.countDown();
+            });
+        }
+        done.await();
+    }
+}
@@ -0,0 +1,70 @@
+package ics432.imgapp;
+
+import javafx.application.Platform;
+import javafx.embed.swing.SwingFXUtils;
+import javafx.scene.image.Image;
+import org.openjdk.jmh.annotations.*;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of JPEG decode and encode. The decode goes through the same path
+ * as the app (a JavaFX Image, then SwingFXUtils.fromFXImage), which requires
+ * the JavaFX toolkit and thus a display (it is the only one that fails without), and through ImageIO straight into a
+ * filter-ready BufferedImage, as the reader threads now do. The primary score is in images/sec,
+ * and the "bytes" counter gives the JPEG throughput in bytes/sec.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = {"-Xmx4G"})
+@State(Scope.Benchmark)
+public class CodecBenchmark {
+
+    @Param({"256", "1024", "2048"})
+    public int size;
+
+    private BufferedImage image;
+    private byte[] jpeg;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        image = BenchmarkImages.create(size, size);
+        jpeg = BenchmarkImages.toJpeg(image);
+        try {
+            Platform.startup(() -> {});
+        } catch (IllegalStateException ignore) {
+            // The toolkit was already started
+        } catch (RuntimeException e) {
+            // No display: only decodeJavaFX will fail
+            System.err.println("Could not start the JavaFX toolkit: " + e);
+        }
+    }
+
+    @Benchmark
+    public BufferedImage decodeJavaFX(FilterBenchmark.ByteCounter counter) {
+        counter.bytes += jpeg.length;
+        Image fxImage = new Image(new ByteArrayInputStream(jpeg));
+        return SwingFXUtils.fromFXImage(fxImage, null);
+    }
+
+    @Benchmark
+    public BufferedImage decodeImageIO(FilterBenchmark.ByteCounter counter) throws IOException {
+        counter.bytes += jpeg.length;
+        return IntRaster.of(ImageIO.read(new ByteArrayInputStream(jpeg))).getImage();
+    }
+
+    @Benchmark
+    public byte[] encodeImageIO(FilterBenchmark.ByteCounter counter) throws IOException {
+        ByteArrayOutputStream os = new ByteArrayOutputStream(jpeg.length);
+        ImageIO.write(image, "jpg", os);
+        counter.bytes += os.size();
+        return os.toByteArray();
+    }
+}
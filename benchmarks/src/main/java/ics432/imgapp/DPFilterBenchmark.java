@@ -0,0 +1,48 @@
+package ics432.imgapp;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of each data-parallel filter in the FilterRegistry that runs in-process,
+ * across image sizes and data-parallel thread counts, through the same FilterChain
+ * path as the pipeline. The primary score is in images/sec, and the "bytes" counter
+ * gives the raw RGB throughput (3 bytes per pixel) in bytes/sec.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = {"-Xmx4G", "--add-modules=jdk.incubator.vector"})
+@State(Scope.Benchmark)
+public class DPFilterBenchmark {
+
+    @Param({"DPMedian", "DPEdgeJava", "DPFunkJava"})
+    public String filterName;
+
+    @Param({"256", "1024", "2048"})
+    public int size;
+
+    @Param({"1", "2", "4", "8"})
+    public int dpThreads;
+
+    private BufferedImage image;
+    private FilterChain chain;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        // Picked up by each new instance of the filter (see FilterRegistry)
+        PipelineConfig.setDPThreadCount(dpThreads);
+        image = BenchmarkImages.create(size, size);
+        chain = FilterChain.of(filterName);
+    }
+
+    @Benchmark
+    public BufferedImage filter(FilterBenchmark.ByteCounter counter) throws IOException {
+        counter.bytes += 3L * size * size;
+        return chain.apply(image);
+    }
+}
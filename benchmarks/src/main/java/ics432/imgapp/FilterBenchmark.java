@@ -0,0 +1,61 @@
+package ics432.imgapp;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of each sequential filter in the FilterRegistry that runs in-process,
+ * across image sizes, through the same FilterChain path as the pipeline (so that
+ * the pointwise filters are applied as lookup tables, see PointwiseLut). The
+ * data-parallel filters are in DPFilterBenchmark. The primary score is in
+ * images/sec, and the "bytes" counter gives the raw RGB throughput (3 bytes per
+ * pixel) in bytes/sec.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = {"-Xmx4G", "--add-modules=jdk.incubator.vector"})
+@State(Scope.Benchmark)
+public class FilterBenchmark {
+
+    @Param({"Invert", "Solarize", "Oil4", "Median"})
+    public String filterName;
+
+    @Param({"256", "1024", "2048"})
+    public int size;
+
+    private BufferedImage image;
+    private FilterChain chain;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        // The lookup tables of the pointwise filters are otherwise applied in parallel on large images
+        PipelineConfig.setDPThreadCount(1);
+        image = BenchmarkImages.create(size, size);
+        chain = FilterChain.of(filterName);
+    }
+
+    @Benchmark
+    public BufferedImage filter(ByteCounter counter) throws IOException {
+        counter.bytes += 3L * size * size;
+        return chain.apply(image);
+    }
+
+    /**
+     * Counts the number of raw RGB bytes processed
+     */
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    @State(Scope.Thread)
+    public static class ByteCounter {
+        public long bytes;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            bytes = 0;
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package ics432.imgapp;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of the in-house filters with the SIMD kernels (see VectorKernels)
+ * and with the scalar ones, on one thread. The primary score is in images/sec.
+ * <p>
+ * The "AVX2" forks cap the JIT at AVX2 (-XX:UseAVX=2), so that a machine with
+ * AVX-512 also gives the numbers of a typical x86 machine.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = {"-Xmx4G", "--add-modules=jdk.incubator.vector"})
+@State(Scope.Benchmark)
+public class SimdBenchmark {
+
+    @Param({"Invert", "Solarize", "Median"})
+    public String filterName;
+
+    @Param({"1024", "2048"})
+    public int size;
+
+    @Param({"true", "false"})
+    public boolean simd;
+
+    private BufferedImage image;
+    private FilterChain chain;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        PipelineConfig.setDPThreadCount(1);
+        PipelineConfig.setUseSimd(simd);
+        if (simd && !PipelineConfig.useSimd()) {
+            throw new IllegalStateException("The Vector API is not available");
+        }
+        image = BenchmarkImages.create(size, size);
+        chain = FilterChain.of(filterName);
+    }
+
+    @Benchmark
+    public BufferedImage filter() throws IOException {
+        return chain.apply(image);
+    }
+
+    @Benchmark
+    @Fork(value = 1, jvmArgs = {"-Xmx4G", "--add-modules=jdk.incubator.vector", "-XX:UseAVX=2"})
+    public BufferedImage filterAVX2() throws IOException {
+        return chain.apply(image);
+    }
+}
@@ -1,5 +1,11 @@
+#define _POSIX_C_SOURCE 200809L
 #include <stdio.h>
 #include <stdlib.h>
+#include <string.h>
+#include <unistd.h>
+#include <fcntl.h>
+#include <sys/mman.h>
+#include <sys/stat.h>
 #include <jpeglib.h>
 #include <setjmp.h>
 #include <math.h>
@@ -33,14 +39,14 @@ void free_image(struct rgb_image *img)  {
 /**
  * @brief Function to read an input (jpeg) image from disk into RAM
  * @param filename: the path to the input image file
- * @return an image data  structure
+ * @return an image data  structure, or NULL if the file could not be opened
  */
 struct rgb_image *read_input_image(char *filename) {
 
     FILE *infile;
     if ((infile = fopen(filename, "r")) == NULL) {
-        fprintf(stderr, "Could not open file %s for reading", filename);
-        exit(1);
+        fprintf(stderr, "Could not open file %s for reading\n", filename);
+        return NULL;
     }
 
     struct rgb_image *image = (struct rgb_image *) calloc(1, sizeof(struct rgb_image));
@@ -76,6 +82,7 @@ struct rgb_image *read_input_image(char *filename) {
     }
 
     (void) jpeg_finish_decompress(&cinfo);
+    jpeg_destroy_decompress(&cinfo);
     fclose(infile);
 
     return image;
@@ -103,13 +110,14 @@ struct rgb_image *create_output_image(struct rgb_image *input_image) {
  * @brief Function that applies a filter to the input image for generating the output image pixels
  * @param image: an image data structure
  * @param filename: the path to the output image file
+ * @return 0 on success, -1 if the file could not be opened
  */
-void write_output_image(struct rgb_image *image, char *filename) {
+int write_output_image(struct rgb_image *image, char *filename) {
 
     FILE *outfile;
     if ((outfile = fopen(filename, "w")) == NULL) {
-        fprintf(stderr, "Could not open file %s for writing", filename);
-        exit(1);
+        fprintf(stderr, "Could not open file %s for writing\n", filename);
+        return -1;
     }
 
     struct jpeg_compress_struct cinfo;
@@ -129,9 +137,9 @@ void write_output_image(struct rgb_image *image, char *filename) {
 
     JSAMPROW row_pointer[1];
     int row = 0;
+    unsigned char *row_rgbs = (unsigned char *) calloc(3 * cinfo.image_width, sizeof(unsigned char));
     while (cinfo.next_scanline < cinfo.image_height) {
 
-        unsigned char *row_rgbs = (unsigned char *) calloc(3 * cinfo.image_width, sizeof(unsigned char));
         for (int i = 0; i < cinfo.image_width * 3; i += 3) {
             for (int rgb=0; rgb < 3; rgb++) {
                 row_rgbs[i + rgb] = (unsigned char) (image->RGB[rgb][row * image->width + i / 3]);
@@ -146,87 +154,496 @@ void write_output_image(struct rgb_image *image, char *filename) {
     (void) jpeg_finish_compress(&cinfo);
     fclose(outfile);
     jpeg_destroy_compress(&cinfo);
+    free(row_rgbs);
+    return 0;
 }
 
+// Number of pixels in a block of rows: a block of a channel (input and output)
+// stays in the L2 cache while its rows are read three times each
+#define BLOCK_PIXELS (64 * 1024)
+
 /**
- * @brief Function to compute the new (i.e., transformed) pixel value
- * @param input_image: input image data structure
- * @param row: pixel row
- * @param col: pixel column
- * @param rgb: RGB channel
+ * @brief Function to compute the new (i.e., transformed) values of an interior row of a channel:
+ * the magnitude of the 3x3 Sobel gradient, at least 70, cast to unsigned char. Border pixels are 0.
+ * The gradients are computed with integer arithmetic, and the square root in single precision,
+ * which gives the same integer part as in double precision (the squared magnitude is below 2^22,
+ * so a float is exact, and a non-square's root is further from the next integer than a float
+ * rounding error). The loops have no branches or calls, so that the compiler vectorizes them
+ * (e.g., 8 pixels at a time with AVX2).
+ * @param up: the row above
+ * @param mid: the row
+ * @param down: the row below
+ * @param out: the output row
+ * @param width: the row width
+ * @param approximate: whether to approximate the magnitude as MAX(M, 7/8 M + 1/2 m), where M and m
+ * are the larger and smaller of |Gx| and |Gy| (within 4% of the exact magnitude, without a square root)
  */
-unsigned char compute_pixel_value(struct rgb_image *input_image, int row, int col, int channel) {
-
-    // If a border pixel, return 0
-    if (row == 0 || col == 0 || row == input_image->height-1 || col == input_image->width -1) {
-        return 0;
-    }
-
-    double Gx[3][3] = {{-1, 0, 1}, {-2, 0, 2}, {-1, 0, 1}};
-    double Gy[3][3] = {{-1, -2, -1}, {0, 0, 0}, {1, 2, 1}};
-    double S1 = 0;
-    double S2 = 0;
-
-    for (int i = -1; i <= +1; i++) {
-        for (int j = -1; j <= +1; j++) {
-            S1 += Gx[i+1][j+1] * input_image->RGB[channel][(row + i) * input_image->width + col + j];
-            S2 += Gy[i+1][j+1] * input_image->RGB[channel][(row + i) * input_image->width + col + j];
+void compute_row(const unsigned char *restrict up, const unsigned char *restrict mid,
+                 const unsigned char *restrict down, unsigned char *restrict out, int width, int approximate) {
+
+    if (approximate) {
+        for (int col = 1; col < width - 1; col++) {
+            int S1 = (up[col+1] - up[col-1]) + 2 * (mid[col+1] - mid[col-1]) + (down[col+1] - down[col-1]);
+            int S2 = (down[col-1] - up[col-1]) + 2 * (down[col] - up[col]) + (down[col+1] - up[col+1]);
+            int abs1 = abs(S1);
+            int abs2 = abs(S2);
+            int larger = MAX(abs1, abs2);
+            int smaller = MIN(abs1, abs2);
+            int mag = MAX(larger, (7 * larger + 4 * smaller) >> 3);
+            out[col] = (unsigned char) MAX(mag, 70);
+        }
+    } else {
+        for (int col = 1; col < width - 1; col++) {
+            int S1 = (up[col+1] - up[col-1]) + 2 * (mid[col+1] - mid[col-1]) + (down[col+1] - down[col-1]);
+            int S2 = (down[col-1] - up[col-1]) + 2 * (down[col] - up[col]) + (down[col+1] - up[col+1]);
+            int mag = (int) sqrtf((float) (S1*S1 + S2*S2));
+            out[col] = (unsigned char) MAX(mag, 70);
         }
     }
+    out[0] = 0;
+    out[width - 1] = 0;
+}
 
-    double mag = sqrt(S1*S1 + S2*S2);
-    double value = MAX(mag,70.0);
-    return (unsigned char) value;
 
+/**
+ * @brief Function that tells whether magnitudes are approximated (see compute_row())
+ * @return 1 if the ICS432_EDGE_APPROX environment variable is set to 1, 0 otherwise
+ */
+int use_approximate_magnitude() {
+    char *approximate_env = getenv("ICS432_EDGE_APPROX");
+    return (approximate_env != NULL && strcmp(approximate_env, "1") == 0);
 }
 
 
 /**
- * @brief Function that applies a filter to the input image for generating the output image pixels
+ * @brief Function that applies a filter to the input image for generating the output image pixels.
+ * The image is split into blocks of rows that fit in cache, which the threads take dynamically.
+ * Magnitudes are approximated (see compute_row()) if the ICS432_EDGE_APPROX environment variable
+ * is set to 1.
  * @param input_image: the input image data structure
  * @param output_image: the output image data structure
+ * @param num_threads: the number of threads
+ * This is also what the Java app calls in-process when the filter is built as a shared
+ * library (lib<filter>.so), with the struct rgb_image layout mirrored on the Java side.
  */
 void apply_filter(struct rgb_image *input_image, struct rgb_image *output_image, int num_threads){
-    int row, col, rgb;
-
-    #pragma omp parallel for private(row, col, rgb) num_threads(num_threads)
-    for (row = 0; row < input_image->height; row++) {
-        for (col = 0; col < input_image->width; col++) {
-            for (rgb = 0; rgb < 3; rgb++) {
-                output_image->RGB[rgb][row * input_image->width + col] =
-                    compute_pixel_value(input_image, row, col, rgb);
+    int width = input_image->width;
+    int height = input_image->height;
+    int approximate = use_approximate_magnitude();
+    int block_rows = MAX(1, BLOCK_PIXELS / width);
+    int num_blocks = (height + block_rows - 1) / block_rows;
+
+    #pragma omp parallel for schedule(dynamic) num_threads(num_threads)
+    for (int block = 0; block < num_blocks; block++) {
+        int first_row = block * block_rows;
+        int last_row = MIN(height, first_row + block_rows);
+        for (int rgb = 0; rgb < 3; rgb++) {
+            for (int row = first_row; row < last_row; row++) {
+                unsigned char *out = output_image->RGB[rgb] + (size_t) row * width;
+                // If a border row, all 0
+                if (row == 0 || row == height - 1) {
+                    memset(out, 0, width);
+                    continue;
+                }
+                unsigned char *in = input_image->RGB[rgb] + (size_t) row * width;
+                compute_row(in - width, in, in + width, out, width, approximate);
+            }
+        }
+    }
+}
+
+#define FILTER_OK 0
+#define FILTER_READ_ERROR 1
+#define FILTER_WRITE_ERROR 2
+
+/**
+ * @brief Function that reads an input image file, applies the filter, and writes the output image file
+ * @param input_path: the path to the input image file
+ * @param output_path: the path to the output image file
+ * @param num_threads: the number of threads
+ * @return FILTER_OK, FILTER_READ_ERROR, or FILTER_WRITE_ERROR
+ */
+int filter_file(char *input_path, char *output_path, int num_threads) {
+
+    struct rgb_image *input_image = read_input_image(input_path);
+    if (input_image == NULL) {
+        return FILTER_READ_ERROR;
+    }
+    struct rgb_image *output_image = create_output_image(input_image);
+    apply_filter(input_image, output_image, num_threads);
+    int status = write_output_image(output_image, output_path);
+    free_image(input_image);
+    free_image(output_image);
+
+    return (status == 0) ? FILTER_OK : FILTER_WRITE_ERROR;
+}
+
+// How many rows above and below a row its output depends on (3x3 Sobel)
+#define STREAM_HALO_ROWS 1
+// The number of rows that are filtered at once (in parallel) in streaming mode
+#define STREAM_BATCH_ROWS 64
+
+/**
+ * @brief Function that reads an input image file, applies the filter, and writes the output image file
+ * in lockstep, so that only a window of rows is in RAM at any time, rather than the whole input and
+ * output images (e.g., for very large scans). The window holds a batch of rows plus the rows above and
+ * below that their output depends on. As it moves down the image, rows are decoded, filtered (a batch
+ * at a time, in parallel), and encoded. The output is the same as filter_file()'s.
+ * @param input_path: the path to the input image file
+ * @param output_path: the path to the output image file
+ * @param num_threads: the number of threads
+ * @return FILTER_OK, FILTER_READ_ERROR, or FILTER_WRITE_ERROR
+ */
+int filter_stream(char *input_path, char *output_path, int num_threads) {
+
+    FILE *infile;
+    if ((infile = fopen(input_path, "r")) == NULL) {
+        fprintf(stderr, "Could not open file %s for reading\n", input_path);
+        return FILTER_READ_ERROR;
+    }
+    FILE *outfile;
+    if ((outfile = fopen(output_path, "w")) == NULL) {
+        fprintf(stderr, "Could not open file %s for writing\n", output_path);
+        fclose(infile);
+        return FILTER_WRITE_ERROR;
+    }
+
+    struct jpeg_decompress_struct dinfo;
+    struct jpeg_error_mgr derr;
+    dinfo.err = jpeg_std_error(&derr);
+    jpeg_create_decompress(&dinfo);
+    jpeg_stdio_src(&dinfo, infile);
+    jpeg_read_header(&dinfo, TRUE);
+    jpeg_start_decompress(&dinfo);
+    int width = (int) dinfo.output_width;
+    int height = (int) dinfo.output_height;
+
+    struct jpeg_compress_struct cinfo;
+    struct jpeg_error_mgr cerr;
+    cinfo.err = jpeg_std_error(&cerr);
+    jpeg_create_compress(&cinfo);
+    jpeg_stdio_dest(&cinfo, outfile);
+    cinfo.image_width = width;
+    cinfo.image_height = height;
+    cinfo.input_components = 3;
+    cinfo.in_color_space = JCS_RGB;
+    jpeg_set_defaults(&cinfo);
+    jpeg_set_quality(&cinfo, 100, TRUE);   // Quality = 100, as in write_output_image()
+    jpeg_start_compress(&cinfo, TRUE);
+
+    // Input row i is at i % ring_rows in the window, and output row i at i - first_row in the batch
+    int ring_rows = STREAM_BATCH_ROWS + 2 * STREAM_HALO_ROWS;
+    struct rgb_image window = {height, width};
+    struct rgb_image output_batch = {STREAM_BATCH_ROWS, width};
+    for (int rgb = 0; rgb < 3; rgb++) {
+        window.RGB[rgb] = (unsigned char *) malloc(sizeof(unsigned char) * ring_rows * width);
+        output_batch.RGB[rgb] = (unsigned char *) malloc(sizeof(unsigned char) * STREAM_BATCH_ROWS * width);
+    }
+    unsigned char *scanline = (unsigned char *) malloc(sizeof(unsigned char) * 3 * width);
+    JSAMPROW row_pointer[1] = {scanline};
+
+    int rows_read = 0;
+    for (int first_row = 0; first_row < height; first_row += STREAM_BATCH_ROWS) {
+        int last_row = MIN(height, first_row + STREAM_BATCH_ROWS);
+
+        // Decode the rows that the batch depends on (over the rows that are no longer needed)
+        while (rows_read < MIN(height, last_row + STREAM_HALO_ROWS)) {
+            (void) jpeg_read_scanlines(&dinfo, row_pointer, 1);
+            size_t offset = (size_t) (rows_read % ring_rows) * width;
+            for (int col = 0; col < width; col++) {
+                for (int rgb = 0; rgb < 3; rgb++) {
+                    window.RGB[rgb][offset + col] = scanline[3 * col + rgb];
+                }
+            }
+            rows_read++;
+        }
+
+        // Filter the batch
+        int approximate = use_approximate_magnitude();
+        #pragma omp parallel for schedule(dynamic) num_threads(num_threads)
+        for (int row = first_row; row < last_row; row++) {
+            for (int rgb = 0; rgb < 3; rgb++) {
+                unsigned char *out = output_batch.RGB[rgb] + (size_t) (row - first_row) * width;
+                // If a border row, all 0
+                if (row == 0 || row == height - 1) {
+                    memset(out, 0, width);
+                    continue;
+                }
+                unsigned char *in = window.RGB[rgb];
+                compute_row(in + (size_t) ((row - 1) % ring_rows) * width, in + (size_t) (row % ring_rows) * width,
+                            in + (size_t) ((row + 1) % ring_rows) * width, out, width, approximate);
+            }
+        }
+
+        // Encode the batch
+        for (int row = first_row; row < last_row; row++) {
+            size_t offset = (size_t) (row - first_row) * width;
+            for (int col = 0; col < width; col++) {
+                for (int rgb = 0; rgb < 3; rgb++) {
+                    scanline[3 * col + rgb] = output_batch.RGB[rgb][offset + col];
+                }
+            }
+            (void) jpeg_write_scanlines(&cinfo, row_pointer, 1);
+        }
+    }
+
+    (void) jpeg_finish_compress(&cinfo);
+    jpeg_destroy_compress(&cinfo);
+    fclose(outfile);
+    (void) jpeg_finish_decompress(&dinfo);
+    jpeg_destroy_decompress(&dinfo);
+    fclose(infile);
+    for (int rgb = 0; rgb < 3; rgb++) {
+        free(window.RGB[rgb]);
+        free(output_batch.RGB[rgb]);
+    }
+    free(scanline);
+    return FILTER_OK;
+}
+
+/**
+ * @brief Function that applies the filter to raw pixels exchanged through a memory-mapped file,
+ * so that the filter neither decodes nor encodes a JPEG. The file holds the R, G, and B planes
+ * of the input image (width * height bytes each), followed by the R, G, and B planes of the
+ * output image, which the filter fills in.
+ * @param exchange_path: the path to the exchange file
+ * @param width: the image width
+ * @param height: the image height
+ * @param num_threads: the number of threads
+ * @return FILTER_OK, or FILTER_READ_ERROR if the file could not be mapped
+ */
+int filter_raw(char *exchange_path, int width, int height, int num_threads) {
+
+    size_t plane_size = (size_t) width * height;
+    size_t size = 6 * plane_size;
+
+    int fd = open(exchange_path, O_RDWR);
+    if (fd == -1) {
+        fprintf(stderr, "Could not open exchange file %s\n", exchange_path);
+        return FILTER_READ_ERROR;
+    }
+    struct stat file_stat;
+    if (fstat(fd, &file_stat) == -1 || (size_t) file_stat.st_size < size) {
+        fprintf(stderr, "Exchange file %s is too small\n", exchange_path);
+        close(fd);
+        return FILTER_READ_ERROR;
+    }
+    unsigned char *planes = (unsigned char *) mmap(NULL, size, PROT_READ | PROT_WRITE, MAP_SHARED, fd, 0);
+    close(fd);
+    if (planes == MAP_FAILED) {
+        fprintf(stderr, "Could not map exchange file %s\n", exchange_path);
+        return FILTER_READ_ERROR;
+    }
+
+    struct rgb_image input_image = {height, width,
+                                    {planes, planes + plane_size, planes + 2 * plane_size}};
+    struct rgb_image output_image = {height, width,
+                                     {planes + 3 * plane_size, planes + 4 * plane_size, planes + 5 * plane_size}};
+    apply_filter(&input_image, &output_image, num_threads);
+
+    munmap(planes, size);
+    return FILTER_OK;
+}
+
+/**
+ * @brief Function that runs the filter as a long-lived worker process, so that the
+ * process start-up cost is paid once rather than for every image. Requests are read from
+ * stdin, one per line, as "<input jpg file path>\t<output jpg file path>\t<number of threads>",
+ * and each request is answered with a line on stdout, either "OK" or "ERROR <message>".
+ * A request can also be "RAW\t<exchange file path>\t<width>\t<height>\t<number of threads>",
+ * in which case the pixels are exchanged through a memory-mapped file (see filter_raw()).
+ * Everything else the filter prints on stdout is sent to stderr instead.
+ * @return the exit status
+ */
+int run_worker() {
+
+    // Keep the original stdout for replies only
+    FILE *replies = fdopen(dup(STDOUT_FILENO), "w");
+    if (replies == NULL || dup2(STDERR_FILENO, STDOUT_FILENO) == -1) {
+        fprintf(stderr, "Could not set up the reply stream\n");
+        return 1;
+    }
+
+    char *line = NULL;
+    size_t line_capacity = 0;
+    ssize_t length;
+    while ((length = getline(&line, &line_capacity, stdin)) != -1) {
+        if (length > 0 && line[length - 1] == '\n') {
+            line[length - 1] = '\0';
+        }
+        char *input_path = strtok(line, "\t");
+        if (input_path != NULL && strcmp(input_path, "RAW") == 0) {
+            char *exchange_path = strtok(NULL, "\t");
+            char *width = strtok(NULL, "\t");
+            char *height = strtok(NULL, "\t");
+            char *threads = strtok(NULL, "\t");
+            int num_threads = (threads == NULL) ? 0 : atoi(threads);
+            if (exchange_path == NULL || height == NULL || atoi(width) <= 0 || atoi(height) <= 0 || num_threads <= 0) {
+                fprintf(replies, "ERROR malformed request\n");
+            } else if (filter_raw(exchange_path, atoi(width), atoi(height), num_threads) == FILTER_OK) {
+                fprintf(replies, "OK\n");
+            } else {
+                fprintf(replies, "ERROR could not map %s\n", exchange_path);
             }
+            fflush(replies);
+            continue;
         }
+        char *output_path = strtok(NULL, "\t");
+        char *threads = strtok(NULL, "\t");
+        int num_threads = (threads == NULL) ? 0 : atoi(threads);
+        if (input_path == NULL || output_path == NULL || num_threads <= 0) {
+            fprintf(replies, "ERROR malformed request\n");
+            fflush(replies);
+            continue;
+        }
+
+        int status = filter_file(input_path, output_path, num_threads);
+        if (status == FILTER_OK) {
+            fprintf(replies, "OK\n");
+        } else if (status == FILTER_READ_ERROR) {
+            fprintf(replies, "ERROR could not read %s\n", input_path);
+        } else {
+            fprintf(replies, "ERROR could not write %s\n", output_path);
+        }
+        fflush(replies);
     }
+
+    free(line);
+    fclose(replies);
+    return 0;
 }
 
+/**
+ * @brief Function that applies the filter to a batch of images in a single process, so that
+ * the process start-up and the OpenMP thread team are paid for once per batch. The manifest
+ * file lists one "<input jpg file path>\t<output jpg file path>" pair per line ("-" reads
+ * the manifest from stdin).
+ * @param manifest_path: the path to the manifest file
+ * @param num_threads: the number of threads
+ * @return the exit status (1 if any image failed)
+ */
+int run_manifest(char *manifest_path, int num_threads) {
+
+    FILE *manifest = (strcmp(manifest_path, "-") == 0) ? stdin : fopen(manifest_path, "r");
+    if (manifest == NULL) {
+        fprintf(stderr, "Could not open manifest %s for reading\n", manifest_path);
+        return 1;
+    }
+
+    int exit_status = 0;
+    char *line = NULL;
+    size_t line_capacity = 0;
+    ssize_t length;
+    while ((length = getline(&line, &line_capacity, manifest)) != -1) {
+        if (length > 0 && line[length - 1] == '\n') {
+            line[length - 1] = '\0';
+        }
+        char *input_path = strtok(line, "\t");
+        char *output_path = strtok(NULL, "\t");
+        if (input_path == NULL) {
+            continue; // Empty line
+        }
+        if (output_path == NULL) {
+            fprintf(stderr, "Malformed manifest line: %s\n", input_path);
+            exit_status = 1;
+            continue;
+        }
+        if (filter_file(input_path, output_path, num_threads) != FILTER_OK) {
+            fprintf(stderr, "Failed to filter %s into %s\n", input_path, output_path);
+            exit_status = 1;
+        }
+    }
+
+    free(line);
+    if (manifest != stdin) {
+        fclose(manifest);
+    }
+    return exit_status;
+}
+
+// The shared library build only exports the filter functions
+#ifndef ICS432_FILTER_LIBRARY
+
 int main(int argc, char **argv) {
 
+    /** Worker mode **/
+    if (argc == 2 && strcmp(argv[1], "--worker") == 0) {
+        return run_worker();
+    }
+
+    /** Streaming mode **/
+    if (argc == 5 && strcmp(argv[1], "--stream") == 0) {
+        int num_threads = atoi(argv[4]);
+        if (num_threads <= 0) {
+            fprintf(stderr, "Number of threads must be a positive integer.\n");
+            exit(1);
+        }
+        return (filter_stream(argv[2], argv[3], num_threads) == FILTER_OK) ? 0 : 1;
+    }
+
+    /** Manifest (batch) mode **/
+    if (argc == 4 && strcmp(argv[1], "--manifest") == 0) {
+        int num_threads = atoi(argv[3]);
+        if (num_threads <= 0) {
+            fprintf(stderr, "Number of threads must be a positive integer.\n");
+            exit(1);
+        }
+        return run_manifest(argv[2], num_threads);
+    }
+
     /** Parse Command-Line Arguments **/
     if (argc != 4) {
-        fprintf(stderr, "Usage: %s <input jpg file path> <output jpg file path> <number of data parellel thread>\n", argv[0]);
+        fprintf(stderr, "Usage: %s <input jpg file path> <output jpg file path> <number of data parellel thread>[,<number>...]\n"
+                        "       %s --stream <input jpg file path> <output jpg file path> <number of threads>\n"
+                        "       %s --manifest <manifest file path> <number of threads>\n"
+                        "       %s --worker\n", argv[0], argv[0], argv[0], argv[0]);
         exit(1);
     }
 
-    int num_threads = atoi(argv[3]);
-    fprintf(stderr, "Number of threads: %d\n", num_threads);
-    if (num_threads <= 0) {
+    // A list of thread counts (e.g., "1,2,4,8") runs the filter with each, to compare their throughput
+    int thread_counts[64];
+    int num_thread_counts = 0;
+    for (char *count = strtok(argv[3], ","); count != NULL; count = strtok(NULL, ",")) {
+        int num_threads = atoi(count);
+        if (num_threads <= 0 || num_thread_counts == 64) {
+            fprintf(stderr, "Number of threads must be a positive integer (or a list of at most 64).\n");
+            exit(1);
+        }
+        thread_counts[num_thread_counts++] = num_threads;
+    }
+    if (num_thread_counts == 0) {
         fprintf(stderr, "Number of threads must be a positive integer.\n");
         exit(1);
     }
 
     /** Read Input Image into RAM **/
     struct rgb_image *input_image = read_input_image(argv[1]);
+    if (input_image == NULL) {
+        exit(1);
+    }
 
     /** Create Output Image in RAM **/
     struct rgb_image *output_image = create_output_image(input_image);
 
-    /** Apply Filter **/
-    apply_filter(input_image, output_image, num_threads);
+    /** Apply Filter with each thread count, and report the throughput **/
+    int width = input_image->width;
+    int height = input_image->height;
+    for (int i = 0; i < num_thread_counts; i++) {
+        double start = omp_get_wtime();
+        apply_filter(input_image, output_image, thread_counts[i]);
+        double seconds = omp_get_wtime() - start;
+        fprintf(stderr, "jpegedge: %dx%d pixels, %d thread%s%s: %.4f seconds (%.1f Mpixels/s)\n",
+                width, height, thread_counts[i], (thread_counts[i] == 1) ? "" : "s",
+                use_approximate_magnitude() ? ", approximate" : "", seconds, (double) width * height / seconds / 1e6);
+    }
 
     /** Save Output Image **/
-    write_output_image(output_image, argv[2]);
+    if (write_output_image(output_image, argv[2]) != 0) {
+        exit(1);
+    }
 
     free_image(input_image);
     free_image(output_image);
 }
+
+#endif // ICS432_FILTER_LIBRARY
@@ -1,5 +1,11 @@
+#define _POSIX_C_SOURCE 200809L
 #include <stdio.h>
 #include <stdlib.h>
+#include <string.h>
+#include <unistd.h>
+#include <fcntl.h>
+#include <sys/mman.h>
+#include <sys/stat.h>
 #include <jpeglib.h>
 #include <omp.h>
 #include <sys/time.h>
@@ -32,14 +38,14 @@ void free_image(struct rgb_image *img)  {
 /**
  * @brief Function to read an input (jpeg) image from disk into RAM
  * @param filename: the path to the input image file
- * @return an image data  structure
+ * @return an image data  structure, or NULL if the file could not be opened
  */
 struct rgb_image *read_input_image(char *filename) {
 
     FILE *infile;
     if ((infile = fopen(filename, "r")) == NULL) {
-        fprintf(stderr, "Could not open file %s for reading", filename);
-        exit(1);
+        fprintf(stderr, "Could not open file %s for reading\n", filename);
+        return NULL;
     }
 
     struct rgb_image *image = (struct rgb_image *) calloc(1, sizeof(struct rgb_image));
@@ -75,6 +81,7 @@ struct rgb_image *read_input_image(char *filename) {
     }
 
     (void) jpeg_finish_decompress(&cinfo);
+    jpeg_destroy_decompress(&cinfo);
     fclose(infile);
 
     return image;
@@ -102,13 +109,14 @@ struct rgb_image *create_output_image(struct rgb_image *input_image) {
  * @brief Function that applies a filter to the input image for generating the output image pixels
  * @param image: an image data structure
  * @param filename: the path to the output image file
+ * @return 0 on success, -1 if the file could not be opened
  */
-void write_output_image(struct rgb_image *image, char *filename) {
+int write_output_image(struct rgb_image *image, char *filename) {
 
     FILE *outfile;
     if ((outfile = fopen(filename, "w")) == NULL) {
-        fprintf(stderr, "Could not open file %s for writing", filename);
-        exit(1);
+        fprintf(stderr, "Could not open file %s for writing\n", filename);
+        return -1;
     }
 
     struct jpeg_compress_struct cinfo;
@@ -128,9 +136,9 @@ void write_output_image(struct rgb_image *image, char *filename) {
 
     JSAMPROW row_pointer[1];
     int row = 0;
+    unsigned char *row_rgbs = (unsigned char *) calloc(3 * cinfo.image_width, sizeof(unsigned char));
     while (cinfo.next_scanline < cinfo.image_height) {
 
-        unsigned char *row_rgbs = (unsigned char *) calloc(3 * cinfo.image_width, sizeof(unsigned char));
         for (int i = 0; i < cinfo.image_width * 3; i += 3) {
             for (int rgb=0; rgb < 3; rgb++) {
                 row_rgbs[i + rgb] = (unsigned char) (image->RGB[rgb][row * image->width + i / 3]);
@@ -145,102 +153,551 @@ void write_output_image(struct rgb_image *image, char *filename) {
     (void) jpeg_finish_compress(&cinfo);
     fclose(outfile);
     jpeg_destroy_compress(&cinfo);
+    free(row_rgbs);
+    return 0;
 }
 
+#define COARSE_SHIFT 4
+#define NUM_COARSE_BINS (256 >> COARSE_SHIFT)
+
 /**
- * Helper function to compare bytes
+ * @brief Helper data structure to store the histograms (one per channel) of a window of
+ * pixels, with a coarse level of 16-value bins so that a value is found by rank in at most
+ * 32 steps. Each thread has its own, so that no memory is allocated per pixel.
  */
-int compare_byte(const void *x, const void  *y) {
-    unsigned char *uc_x = (unsigned char *)x;
-    unsigned char *uc_y = (unsigned char *)y;
-    if (*uc_x < *uc_y) {
-        return -1;
-    } else if (*uc_x > *uc_y) {
-        return 1;
-    } else {
-        return 0;
+struct window_histogram {
+    int fine[3][256];
+    int coarse[3][NUM_COARSE_BINS];
+};
+
+/**
+ * @brief Function to add (delta = 1) or remove (delta = -1) the pixels of a rectangle to/from
+ * the histograms (nothing if the rectangle is empty)
+ * @param histogram: the histograms
+ * @param input_image: input image data structure
+ * @param ring_rows: the number of rows that the input planes hold (row i is at i % ring_rows),
+ * i.e., the image height, or the size of the window of rows in streaming mode
+ * @param top, bottom, left, right: the rectangle (inclusive bounds)
+ * @param delta: 1 or -1
+ */
+void update_histogram(struct window_histogram *histogram, struct rgb_image *input_image, int ring_rows,
+                      int top, int bottom, int left, int right, int delta) {
+
+    for (int rgb = 0; rgb < 3; rgb++) {
+        int *fine = histogram->fine[rgb];
+        int *coarse = histogram->coarse[rgb];
+        for (int i = top; i <= bottom; i++) {
+            unsigned char *values = input_image->RGB[rgb] + (size_t) (i % ring_rows) * input_image->width;
+            for (int j = left; j <= right; j++) {
+                fine[values[j]] += delta;
+                coarse[values[j] >> COARSE_SHIFT] += delta;
+            }
+        }
+    }
+}
+
+/**
+ * @brief Function to find the value at a given rank (0-based) in a channel's histogram,
+ * i.e., the value that would be at that index if the window was sorted
+ */
+int select_value(struct window_histogram *histogram, int channel, int rank) {
+
+    int *fine = histogram->fine[channel];
+    int *coarse = histogram->coarse[channel];
+    int bin = 0;
+    while (rank >= coarse[bin]) {
+        rank -= coarse[bin++];
     }
+    int value = bin << COARSE_SHIFT;
+    while (rank >= fine[value]) {
+        rank -= fine[value++];
+    }
+    return value;
 }
 
+/**
+ * @brief Function to find the largest value in a channel's histogram
+ */
+int max_value(struct window_histogram *histogram, int channel) {
+
+    int *fine = histogram->fine[channel];
+    int *coarse = histogram->coarse[channel];
+    int bin = NUM_COARSE_BINS - 1;
+    while (coarse[bin] == 0) {
+        bin--;
+    }
+    int value = (bin << COARSE_SHIFT) + (1 << COARSE_SHIFT) - 1;
+    while (fine[value] == 0) {
+        value--;
+    }
+    return value;
+}
 
 /**
- * @brief Function to compute the new (i.e., transformed) pixel value
+ * @brief Function to compute the new (i.e., transformed) values of a row of pixels.
+ * Rather than sorting each pixel's window, the histograms of the window slide along the row:
+ * from one pixel to the next, the window only gains rows (its radius grows with the column)
+ * and moves right, so only the rows and columns that enter or leave it are counted.
  * @param input_image: input image data structure
+ * @param ring_rows: the number of rows that the input planes hold (see update_histogram())
+ * @param output_rows: the output row of each channel
  * @param row: pixel row
- * @param col: pixel column
- * @param rgb: RGB channel
+ * @param histogram: the histograms to use (the thread's own)
  */
-unsigned char compute_pixel_value(struct rgb_image *input_image, int row, int col, int channel) {
-
-    double radius =  MAX(1.0,
-                         (5.0 * (col) / (double) input_image->width) +
-                         (20.0 * ( row) / (double) input_image->height));
-
-    int row_lbound = MAX(0, row - radius);
-    int row_ubound = MIN(input_image->height, row + radius);
-    int col_lbound = MAX(0, col - radius);
-    int col_ubound = MIN(input_image->width, col + radius);
-
-    int num_values = (row_ubound - row_lbound + 1) * (col_ubound - col_lbound + 1);
-    unsigned char *values = (unsigned char *)malloc(num_values * sizeof(unsigned char));
-    unsigned char *ptr = values;
-    for  (int i = row_lbound; i <= row_ubound; i++) {
-        for  (int j = col_lbound; j <= col_ubound; j++) {
-            *(ptr++) = input_image->RGB[channel][(i) * input_image->width + j];
+void compute_row(struct rgb_image *input_image, int ring_rows, unsigned char *output_rows[3], int row,
+                 struct window_histogram *histogram) {
+
+    // The current window, empty to start with
+    int row_lbound = 1, row_ubound = 0, col_lbound = 0, col_ubound = -1;
+
+    for (int col = 0; col < input_image->width; col++) {
+
+        double radius =  MAX(1.0,
+                             (5.0 * (col) / (double) input_image->width) +
+                             (20.0 * ( row) / (double) input_image->height));
+
+        // The window is clipped to the image (the last row/column is height-1/width-1)
+        int new_row_lbound = MAX(0, row - radius);
+        int new_row_ubound = MIN(input_image->height - 1, row + radius);
+        int new_col_lbound = MAX(0, col - radius);
+        int new_col_ubound = MIN(input_image->width - 1, col + radius);
+
+        if (row_lbound > row_ubound || new_row_lbound > row_lbound || new_row_ubound < row_ubound ||
+            new_col_lbound < col_lbound || new_col_ubound < col_ubound || new_col_lbound > col_ubound) {
+            // The window does not just grow and slide right (e.g., on very narrow images): start over
+            memset(histogram, 0, sizeof(struct window_histogram));
+            update_histogram(histogram, input_image, ring_rows, new_row_lbound, new_row_ubound,
+                             new_col_lbound, new_col_ubound, 1);
+        } else {
+            // New rows, over the current columns
+            update_histogram(histogram, input_image, ring_rows, new_row_lbound, row_lbound - 1,
+                             col_lbound, col_ubound, 1);
+            update_histogram(histogram, input_image, ring_rows, row_ubound + 1, new_row_ubound,
+                             col_lbound, col_ubound, 1);
+            // Columns that leave and enter, over the new rows
+            update_histogram(histogram, input_image, ring_rows, new_row_lbound, new_row_ubound,
+                             col_lbound, new_col_lbound - 1, -1);
+            update_histogram(histogram, input_image, ring_rows, new_row_lbound, new_row_ubound,
+                             col_ubound + 1, new_col_ubound, 1);
+        }
+        row_lbound = new_row_lbound;
+        row_ubound = new_row_ubound;
+        col_lbound = new_col_lbound;
+        col_ubound = new_col_ubound;
+
+        int num_values = (row_ubound - row_lbound + 1) * (col_ubound - col_lbound + 1);
+        for (int rgb = 0; rgb < 3; rgb++) {
+            int max = max_value(histogram, rgb);
+            int median = select_value(histogram, rgb, num_values / 2);
+            int min = select_value(histogram, rgb, 0);
+            double funky = MAX(0, (double)max - (double)median / 2.0 + (double)min/(4.0));
+            output_rows[rgb][col] = (unsigned char)funky;
         }
     }
-    qsort(values, num_values, sizeof(unsigned char), compare_byte);
-    double funky = MAX(0, (double)values[num_values-1] - (double)values[num_values/2] / 2.0 + (double)values[0]/(4.0));
-    return (unsigned char)funky;
-
 }
 
 
 /**
- * @brief Function that applies a filter to the input image for generating the output image pixels
+ * @brief Function that applies a filter to the input image for generating the output image pixels,
+ * and records how long each thread took
  * @param input_image: the input image data structure
  * @param output_image: the output image data structure
+ * @param num_threads: the number of threads
+ * @param thread_times: where to store the time of each thread in seconds (num_threads entries, -1 for
+ * threads that OpenMP did not start), or NULL
  */
+static void apply_filter_timed(struct rgb_image *input_image, struct rgb_image *output_image, int num_threads,
+                               double *thread_times) {
+    int row;
 
+    if (thread_times != NULL) {
+        for (int i = 0; i < num_threads; i++) {
+            thread_times[i] = -1;
+        }
+    }
 
-void apply_filter(struct rgb_image *input_image, struct rgb_image *output_image, int num_threads) {
-    int row, col, rgb;
-
-
-    #pragma omp parallel private(row, col, rgb) num_threads(num_threads)
+    #pragma omp parallel private(row) num_threads(num_threads)
     {
-        int thread_num = omp_get_thread_num();
-        int chunk = input_image->width / num_threads;
         struct timeval start, end;
+        struct window_histogram histogram;
 
-
+        // Start timer for the current thread
         gettimeofday(&start, NULL);
 
-        #pragma omp for nowait schedule(dynamic, chunk) collapse(3)
+        // Windows, and so the work per row, grow towards the bottom of the image
+        #pragma omp for nowait schedule(dynamic, 1)
         for (row = 0; row < input_image->height; row++) {
-            for (col = 0; col < input_image->width; col++) {
-                for (rgb = 0; rgb < 3; rgb++) {
-                    output_image->RGB[rgb][row * input_image->width + col] =
-                            compute_pixel_value(input_image, row, col, rgb);
+            size_t offset = (size_t) row * input_image->width;
+            unsigned char *output_rows[3] = {output_image->RGB[0] + offset, output_image->RGB[1] + offset,
+                                             output_image->RGB[2] + offset};
+            compute_row(input_image, input_image->height, output_rows, row, &histogram);
+        }
+
+        // Stop timer for the current thread
+        gettimeofday(&end, NULL);
+
+        if (thread_times != NULL) {
+            thread_times[omp_get_thread_num()] = (end.tv_sec - start.tv_sec) +
+                                                 (end.tv_usec - start.tv_usec) / 1000000.0;
+        }
+    }
+}
+
+/**
+ * @brief Function that applies a filter to the input image for generating the output image pixels
+ * @param input_image: the input image data structure
+ * @param output_image: the output image data structure
+ * @param num_threads: the number of threads
+ * This is also what the Java app calls in-process when the filter is built as a shared
+ * library (lib<filter>.so), with the struct rgb_image layout mirrored on the Java side,
+ * so it prints nothing.
+ */
+void apply_filter(struct rgb_image *input_image, struct rgb_image *output_image, int num_threads) {
+    apply_filter_timed(input_image, output_image, num_threads, NULL);
+}
+
+#define FILTER_OK 0
+#define FILTER_READ_ERROR 1
+#define FILTER_WRITE_ERROR 2
+
+/**
+ * @brief Function that reads an input image file, applies the filter, and writes the output image file
+ * @param input_path: the path to the input image file
+ * @param output_path: the path to the output image file
+ * @param num_threads: the number of threads
+ * @return FILTER_OK, FILTER_READ_ERROR, or FILTER_WRITE_ERROR
+ */
+int filter_file(char *input_path, char *output_path, int num_threads) {
+
+    struct rgb_image *input_image = read_input_image(input_path);
+    if (input_image == NULL) {
+        return FILTER_READ_ERROR;
+    }
+    struct rgb_image *output_image = create_output_image(input_image);
+    apply_filter(input_image, output_image, num_threads);
+    int status = write_output_image(output_image, output_path);
+    free_image(input_image);
+    free_image(output_image);
+
+    return (status == 0) ? FILTER_OK : FILTER_WRITE_ERROR;
+}
+
+// How many rows above and below a row its output depends on (the largest window radius,
+// see compute_row())
+#define STREAM_HALO_ROWS 25
+// The number of rows that are filtered at once (in parallel) in streaming mode
+#define STREAM_BATCH_ROWS 64
+
+/**
+ * @brief Function that reads an input image file, applies the filter, and writes the output image file
+ * in lockstep, so that only a window of rows is in RAM at any time, rather than the whole input and
+ * output images (e.g., for very large scans). The window holds a batch of rows plus the rows above and
+ * below that their output depends on. As it moves down the image, rows are decoded, filtered (a batch
+ * at a time, in parallel), and encoded. The output is the same as filter_file()'s.
+ * @param input_path: the path to the input image file
+ * @param output_path: the path to the output image file
+ * @param num_threads: the number of threads
+ * @return FILTER_OK, FILTER_READ_ERROR, or FILTER_WRITE_ERROR
+ */
+int filter_stream(char *input_path, char *output_path, int num_threads) {
+
+    FILE *infile;
+    if ((infile = fopen(input_path, "r")) == NULL) {
+        fprintf(stderr, "Could not open file %s for reading\n", input_path);
+        return FILTER_READ_ERROR;
+    }
+    FILE *outfile;
+    if ((outfile = fopen(output_path, "w")) == NULL) {
+        fprintf(stderr, "Could not open file %s for writing\n", output_path);
+        fclose(infile);
+        return FILTER_WRITE_ERROR;
+    }
+
+    struct jpeg_decompress_struct dinfo;
+    struct jpeg_error_mgr derr;
+    dinfo.err = jpeg_std_error(&derr);
+    jpeg_create_decompress(&dinfo);
+    jpeg_stdio_src(&dinfo, infile);
+    jpeg_read_header(&dinfo, TRUE);
+    jpeg_start_decompress(&dinfo);
+    int width = (int) dinfo.output_width;
+    int height = (int) dinfo.output_height;
+
+    struct jpeg_compress_struct cinfo;
+    struct jpeg_error_mgr cerr;
+    cinfo.err = jpeg_std_error(&cerr);
+    jpeg_create_compress(&cinfo);
+    jpeg_stdio_dest(&cinfo, outfile);
+    cinfo.image_width = width;
+    cinfo.image_height = height;
+    cinfo.input_components = 3;
+    cinfo.in_color_space = JCS_RGB;
+    jpeg_set_defaults(&cinfo);
+    jpeg_set_quality(&cinfo, 100, TRUE);   // Quality = 100, as in write_output_image()
+    jpeg_start_compress(&cinfo, TRUE);
+
+    // Input row i is at i % ring_rows in the window, and output row i at i - first_row in the batch
+    int ring_rows = STREAM_BATCH_ROWS + 2 * STREAM_HALO_ROWS;
+    struct rgb_image window = {height, width};
+    struct rgb_image output_batch = {STREAM_BATCH_ROWS, width};
+    for (int rgb = 0; rgb < 3; rgb++) {
+        window.RGB[rgb] = (unsigned char *) malloc(sizeof(unsigned char) * ring_rows * width);
+        output_batch.RGB[rgb] = (unsigned char *) malloc(sizeof(unsigned char) * STREAM_BATCH_ROWS * width);
+    }
+    unsigned char *scanline = (unsigned char *) malloc(sizeof(unsigned char) * 3 * width);
+    JSAMPROW row_pointer[1] = {scanline};
+
+    int rows_read = 0;
+    for (int first_row = 0; first_row < height; first_row += STREAM_BATCH_ROWS) {
+        int last_row = MIN(height, first_row + STREAM_BATCH_ROWS);
+
+        // Decode the rows that the batch depends on (over the rows that are no longer needed)
+        while (rows_read < MIN(height, last_row + STREAM_HALO_ROWS)) {
+            (void) jpeg_read_scanlines(&dinfo, row_pointer, 1);
+            size_t offset = (size_t) (rows_read % ring_rows) * width;
+            for (int col = 0; col < width; col++) {
+                for (int rgb = 0; rgb < 3; rgb++) {
+                    window.RGB[rgb][offset + col] = scanline[3 * col + rgb];
                 }
             }
+            rows_read++;
         }
 
+        // Filter the batch
+        #pragma omp parallel num_threads(num_threads)
+        {
+            struct window_histogram histogram;
+            #pragma omp for schedule(dynamic, 1)
+            for (int row = first_row; row < last_row; row++) {
+                size_t offset = (size_t) (row - first_row) * width;
+                unsigned char *output_rows[3] = {output_batch.RGB[0] + offset, output_batch.RGB[1] + offset,
+                                                 output_batch.RGB[2] + offset};
+                compute_row(&window, ring_rows, output_rows, row, &histogram);
+            }
+        }
 
-        gettimeofday(&end, NULL);
+        // Encode the batch
+        for (int row = first_row; row < last_row; row++) {
+            size_t offset = (size_t) (row - first_row) * width;
+            for (int col = 0; col < width; col++) {
+                for (int rgb = 0; rgb < 3; rgb++) {
+                    scanline[3 * col + rgb] = output_batch.RGB[rgb][offset + col];
+                }
+            }
+            (void) jpeg_write_scanlines(&cinfo, row_pointer, 1);
+        }
+    }
+
+    (void) jpeg_finish_compress(&cinfo);
+    jpeg_destroy_compress(&cinfo);
+    fclose(outfile);
+    (void) jpeg_finish_decompress(&dinfo);
+    jpeg_destroy_decompress(&dinfo);
+    fclose(infile);
+    for (int rgb = 0; rgb < 3; rgb++) {
+        free(window.RGB[rgb]);
+        free(output_batch.RGB[rgb]);
+    }
+    free(scanline);
+    return FILTER_OK;
+}
 
+/**
+ * @brief Function that applies the filter to raw pixels exchanged through a memory-mapped file,
+ * so that the filter neither decodes nor encodes a JPEG. The file holds the R, G, and B planes
+ * of the input image (width * height bytes each), followed by the R, G, and B planes of the
+ * output image, which the filter fills in.
+ * @param exchange_path: the path to the exchange file
+ * @param width: the image width
+ * @param height: the image height
+ * @param num_threads: the number of threads
+ * @return FILTER_OK, or FILTER_READ_ERROR if the file could not be mapped
+ */
+int filter_raw(char *exchange_path, int width, int height, int num_threads) {
 
-        double thread_time = (end.tv_sec - start.tv_sec) +
-                             (end.tv_usec - start.tv_usec) / 1000000.0;
-        printf("Thread %d took %.6f seconds\n", thread_num, thread_time);
+    size_t plane_size = (size_t) width * height;
+    size_t size = 6 * plane_size;
+
+    int fd = open(exchange_path, O_RDWR);
+    if (fd == -1) {
+        fprintf(stderr, "Could not open exchange file %s\n", exchange_path);
+        return FILTER_READ_ERROR;
+    }
+    struct stat file_stat;
+    if (fstat(fd, &file_stat) == -1 || (size_t) file_stat.st_size < size) {
+        fprintf(stderr, "Exchange file %s is too small\n", exchange_path);
+        close(fd);
+        return FILTER_READ_ERROR;
     }
+    unsigned char *planes = (unsigned char *) mmap(NULL, size, PROT_READ | PROT_WRITE, MAP_SHARED, fd, 0);
+    close(fd);
+    if (planes == MAP_FAILED) {
+        fprintf(stderr, "Could not map exchange file %s\n", exchange_path);
+        return FILTER_READ_ERROR;
+    }
+
+    struct rgb_image input_image = {height, width,
+                                    {planes, planes + plane_size, planes + 2 * plane_size}};
+    struct rgb_image output_image = {height, width,
+                                     {planes + 3 * plane_size, planes + 4 * plane_size, planes + 5 * plane_size}};
+    apply_filter(&input_image, &output_image, num_threads);
+
+    munmap(planes, size);
+    return FILTER_OK;
 }
 
+/**
+ * @brief Function that runs the filter as a long-lived worker process, so that the
+ * process start-up cost is paid once rather than for every image. Requests are read from
+ * stdin, one per line, as "<input jpg file path>\t<output jpg file path>\t<number of threads>",
+ * and each request is answered with a line on stdout, either "OK" or "ERROR <message>".
+ * A request can also be "RAW\t<exchange file path>\t<width>\t<height>\t<number of threads>",
+ * in which case the pixels are exchanged through a memory-mapped file (see filter_raw()).
+ * Everything else the filter prints on stdout is sent to stderr instead.
+ * @return the exit status
+ */
+int run_worker() {
+
+    // Keep the original stdout for replies only
+    FILE *replies = fdopen(dup(STDOUT_FILENO), "w");
+    if (replies == NULL || dup2(STDERR_FILENO, STDOUT_FILENO) == -1) {
+        fprintf(stderr, "Could not set up the reply stream\n");
+        return 1;
+    }
+
+    char *line = NULL;
+    size_t line_capacity = 0;
+    ssize_t length;
+    while ((length = getline(&line, &line_capacity, stdin)) != -1) {
+        if (length > 0 && line[length - 1] == '\n') {
+            line[length - 1] = '\0';
+        }
+        char *input_path = strtok(line, "\t");
+        if (input_path != NULL && strcmp(input_path, "RAW") == 0) {
+            char *exchange_path = strtok(NULL, "\t");
+            char *width = strtok(NULL, "\t");
+            char *height = strtok(NULL, "\t");
+            char *threads = strtok(NULL, "\t");
+            int num_threads = (threads == NULL) ? 0 : atoi(threads);
+            if (exchange_path == NULL || height == NULL || atoi(width) <= 0 || atoi(height) <= 0 || num_threads <= 0) {
+                fprintf(replies, "ERROR malformed request\n");
+            } else if (filter_raw(exchange_path, atoi(width), atoi(height), num_threads) == FILTER_OK) {
+                fprintf(replies, "OK\n");
+            } else {
+                fprintf(replies, "ERROR could not map %s\n", exchange_path);
+            }
+            fflush(replies);
+            continue;
+        }
+        char *output_path = strtok(NULL, "\t");
+        char *threads = strtok(NULL, "\t");
+        int num_threads = (threads == NULL) ? 0 : atoi(threads);
+        if (input_path == NULL || output_path == NULL || num_threads <= 0) {
+            fprintf(replies, "ERROR malformed request\n");
+            fflush(replies);
+            continue;
+        }
+
+        int status = filter_file(input_path, output_path, num_threads);
+        if (status == FILTER_OK) {
+            fprintf(replies, "OK\n");
+        } else if (status == FILTER_READ_ERROR) {
+            fprintf(replies, "ERROR could not read %s\n", input_path);
+        } else {
+            fprintf(replies, "ERROR could not write %s\n", output_path);
+        }
+        fflush(replies);
+    }
+
+    free(line);
+    fclose(replies);
+    return 0;
+}
+
+/**
+ * @brief Function that applies the filter to a batch of images in a single process, so that
+ * the process start-up and the OpenMP thread team are paid for once per batch. The manifest
+ * file lists one "<input jpg file path>\t<output jpg file path>" pair per line ("-" reads
+ * the manifest from stdin).
+ * @param manifest_path: the path to the manifest file
+ * @param num_threads: the number of threads
+ * @return the exit status (1 if any image failed)
+ */
+int run_manifest(char *manifest_path, int num_threads) {
+
+    FILE *manifest = (strcmp(manifest_path, "-") == 0) ? stdin : fopen(manifest_path, "r");
+    if (manifest == NULL) {
+        fprintf(stderr, "Could not open manifest %s for reading\n", manifest_path);
+        return 1;
+    }
+
+    int exit_status = 0;
+    char *line = NULL;
+    size_t line_capacity = 0;
+    ssize_t length;
+    while ((length = getline(&line, &line_capacity, manifest)) != -1) {
+        if (length > 0 && line[length - 1] == '\n') {
+            line[length - 1] = '\0';
+        }
+        char *input_path = strtok(line, "\t");
+        char *output_path = strtok(NULL, "\t");
+        if (input_path == NULL) {
+            continue; // Empty line
+        }
+        if (output_path == NULL) {
+            fprintf(stderr, "Malformed manifest line: %s\n", input_path);
+            exit_status = 1;
+            continue;
+        }
+        if (filter_file(input_path, output_path, num_threads) != FILTER_OK) {
+            fprintf(stderr, "Failed to filter %s into %s\n", input_path, output_path);
+            exit_status = 1;
+        }
+    }
+
+    free(line);
+    if (manifest != stdin) {
+        fclose(manifest);
+    }
+    return exit_status;
+}
+
+// The shared library build only exports the filter functions
+#ifndef ICS432_FILTER_LIBRARY
+
 int main(int argc, char **argv) {
 
+    /** Worker mode **/
+    if (argc == 2 && strcmp(argv[1], "--worker") == 0) {
+        return run_worker();
+    }
+
+    /** Streaming mode **/
+    if (argc == 5 && strcmp(argv[1], "--stream") == 0) {
+        int num_threads = atoi(argv[4]);
+        if (num_threads <= 0) {
+            fprintf(stderr, "Number of threads must be a positive integer.\n");
+            exit(1);
+        }
+        return (filter_stream(argv[2], argv[3], num_threads) == FILTER_OK) ? 0 : 1;
+    }
+
+    /** Manifest (batch) mode **/
+    if (argc == 4 && strcmp(argv[1], "--manifest") == 0) {
+        int num_threads = atoi(argv[3]);
+        if (num_threads <= 0) {
+            fprintf(stderr, "Number of threads must be a positive integer.\n");
+            exit(1);
+        }
+        return run_manifest(argv[2], num_threads);
+    }
+
     /** Parse Command-Line Arguments **/
     if (argc != 4) {
-        fprintf(stderr, "Usage: %s <input jpg file path> <output jpg file path> <Number of DP threads>\n", argv[0]);
+        fprintf(stderr, "Usage: %s <input jpg file path> <output jpg file path> <Number of DP threads>\n"
+                        "       %s --stream <input jpg file path> <output jpg file path> <number of threads>\n"
+                        "       %s --manifest <manifest file path> <number of threads>\n"
+                        "       %s --worker\n", argv[0], argv[0], argv[0], argv[0]);
         exit(1);
     }
     int num_threads = atoi(argv[3]);
@@ -251,16 +708,30 @@ int main(int argc, char **argv) {
     }
     /** Read Input Image into RAM **/
     struct rgb_image *input_image = read_input_image(argv[1]);
+    if (input_image == NULL) {
+        exit(1);
+    }
 
     /** Create Output Image in RAM **/
     struct rgb_image *output_image = create_output_image(input_image);
 
-    /** Apply Filter **/
-    apply_filter(input_image, output_image, num_threads);
+    /** Apply Filter, and report the time of each thread **/
+    double *thread_times = (double *) malloc(sizeof(double) * num_threads);
+    apply_filter_timed(input_image, output_image, num_threads, thread_times);
+    for (int i = 0; i < num_threads; i++) {
+        if (thread_times[i] >= 0) {
+            printf("Thread %d took %.6f seconds\n", i, thread_times[i]);
+        }
+    }
+    free(thread_times);
 
     /** Save Output Image **/
-    write_output_image(output_image, argv[2]);
+    if (write_output_image(output_image, argv[2]) != 0) {
+        exit(1);
+    }
 
     free_image(input_image);
     free_image(output_image);
 }
+
+#endif // ICS432_FILTER_LIBRARY
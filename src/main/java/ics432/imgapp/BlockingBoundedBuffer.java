@@ -0,0 +1,56 @@
+package ics432.imgapp;
+
+import java.util.Collection;
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * A bounded buffer implementation that can be used to communicate between threads
+ * @param <T> The type of the elements in the buffer
+ */
+public class BlockingBoundedBuffer<T> implements BoundedBuffer<T> {
+    private final ArrayBlockingQueue<T> buffer;
+
+    /**
+     * Constructor
+     * @param capacity The capacity of the buffer
+     */
+    public BlockingBoundedBuffer(int capacity) {
+        this.buffer = new ArrayBlockingQueue<>(capacity);
+    }
+
+    /**
+     * Put an item into the buffer
+     * @param item The item to put into the buffer
+     * @throws InterruptedException If the thread is interrupted
+     * The producer.
+     */
+    @Override
+    public void put(T item) throws InterruptedException {
+        buffer.put(item); // Blocks if the buffer is full
+    }
+
+    /**
+     * Take an item from the buffer
+     * @return The item taken from the buffer
+     * @throws InterruptedException If the thread is interrupted
+     * The consumer.
+     */
+    @Override
+    public T take() throws InterruptedException {
+        return buffer.take(); // Blocks if the buffer is empty
+    }
+
+    /**
+     * Take a batch of items from the buffer
+     * @param batch The collection to which the items are added
+     * @param maxItems The maximum number of items to take
+     * @return The number of items taken
+     * @throws InterruptedException If the thread is interrupted
+     */
+    @Override
+    public int drainTo(Collection<? super T> batch, int maxItems) throws InterruptedException {
+        batch.add(buffer.take()); // Blocks if the buffer is empty
+        return 1 + buffer.drainTo(batch, maxItems - 1);
+    }
+
+}
@@ -1,43 +1,48 @@
 package ics432.imgapp;
 
-import java.util.ArrayDeque;
-import java.util.concurrent.ArrayBlockingQueue;
+import java.util.Collection;
+import java.util.List;
 
 /**
- * A bounded buffer implementation that can be used to communicate between threads
+ * A bounded buffer that can be used to communicate between threads
  * @param <T> The type of the elements in the buffer
  */
-public class BoundedBuffer<T> {
-    private final ArrayBlockingQueue<T> buffer;
-
-    /**
-     * Constructor
-     * @param capacity The capacity of the buffer
-     */
-    public BoundedBuffer(int capacity) {
-        this.buffer = new ArrayBlockingQueue<>(capacity);
-    }
+public interface BoundedBuffer<T> {
 
     /**
      * Put an item into the buffer
      * @param item The item to put into the buffer
      * @throws InterruptedException If the thread is interrupted
-     * The producer.
+     * The producer. Blocks if the buffer is full.
      */
-    public void put(T item) throws InterruptedException {
-        buffer.put(item); // Blocks if the buffer is full
-    }
+    void put(T item) throws InterruptedException;
 
     /**
      * Take an item from the buffer
      * @return The item taken from the buffer
      * @throws InterruptedException If the thread is interrupted
-     * The consumer.
+     * The consumer. Blocks if the buffer is empty.
      */
-    public T take() throws InterruptedException {
-        return buffer.take(); // Blocks if the buffer is empty
-    }
+    T take() throws InterruptedException;
 
+    /**
+     * Put a batch of items into the buffer, in order
+     * @param items The items to put into the buffer
+     * @throws InterruptedException If the thread is interrupted
+     */
+    default void putAll(List<T> items) throws InterruptedException {
+        for (T item : items) {
+            put(item);
+        }
+    }
 
+    /**
+     * Take a batch of items from the buffer. Blocks until at least one
+     * item is available, then takes whatever else is available without blocking.
+     * @param batch The collection to which the items are added
+     * @param maxItems The maximum number of items to take
+     * @return The number of items taken
+     * @throws InterruptedException If the thread is interrupted
+     */
+    int drainTo(Collection<? super T> batch, int maxItems) throws InterruptedException;
 }
-
@@ -0,0 +1,115 @@
+package ics432.imgapp;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.BufferedImageOp;
+import java.awt.image.ColorModel;
+
+/**
+ * An in-process, data-parallel version of the jpegedge external filter (DPEdge),
+ * which computes the same output: for each channel, the magnitude of the 3x3 Sobel
+ * gradient, at least 70, and truncated to 8 bits like the C cast to unsigned char
+ * does. Border pixels are black.
+ * <p>
+ * The gradients are computed with integer arithmetic (they are sums of small
+ * integers, which the C version computes exactly in double), and the square root
+ * is only taken when the magnitude is above 70. Bands of rows are filtered in
+ * parallel on the shared data-parallel pools (see RowBandTask).
+ */
+public class DPEdgeFilter implements BufferedImageOp {
+    // Minimum number of pixels in a tile
+    private static final int MIN_TILE_PIXELS = 16 * 1024;
+    // Number of tiles per thread that an image is split into, for load balancing
+    private static final int TILES_PER_THREAD = 4;
+    // The lowest output value (MAX(mag, 70.0) in jpegedge.c)
+    private static final int MIN_VALUE = 70;
+
+    private final int numThreads;
+
+    public DPEdgeFilter() {
+        this(PipelineConfig.getDPThreadCount());
+    }
+
+    /**
+     * Constructor
+     * @param numThreads The number of data-parallel threads
+     */
+    public DPEdgeFilter(int numThreads) {
+        this.numThreads = numThreads;
+    }
+
+    @Override
+    public BufferedImage filter(BufferedImage src, BufferedImage dest) {
+        int width = src.getWidth();
+        int height = src.getHeight();
+
+        IntRaster srcRaster = IntRaster.of(src);
+        IntRaster destRaster = IntRaster.create(width, height); // Black, so border pixels are already done
+
+        int tileRows = Math.max(1, Math.max(MIN_TILE_PIXELS / Math.max(1, width),
+                height / (numThreads * TILES_PER_THREAD)));
+
+        int[] srcPixels = srcRaster.getPixels();
+        int[] destPixels = destRaster.getPixels();
+        RowBandTask.run(numThreads, height, tileRows,
+                (startRow, endRow) -> edge(srcPixels, destPixels, width, height, startRow, endRow));
+
+        return destRaster.getImage();
+    }
+
+    /**
+     * Compute the edge value of the interior pixels of a band of rows
+     *
+     * @param src The source pixels
+     * @param dst The destination pixels
+     * @param width The image width
+     * @param height The image height
+     * @param startRow The first row to compute
+     * @param endRow One past the last row to compute
+     */
+    static void edge(int[] src, int[] dst, int width, int height, int startRow, int endRow) {
+        for (int y = Math.max(1, startRow); y < Math.min(height - 1, endRow); y++) {
+            int row = y * width;
+            for (int x = 1; x < width - 1; x++) {
+                int up = row - width + x;
+                int mid = row + x;
+                int down = row + width + x;
+                int out = 0;
+                for (int shift = 16; shift >= 0; shift -= 8) {
+                    int p00 = (src[up - 1] >> shift) & 0xFF;
+                    int p01 = (src[up] >> shift) & 0xFF;
+                    int p02 = (src[up + 1] >> shift) & 0xFF;
+                    int p10 = (src[mid - 1] >> shift) & 0xFF;
+                    int p12 = (src[mid + 1] >> shift) & 0xFF;
+                    int p20 = (src[down - 1] >> shift) & 0xFF;
+                    int p21 = (src[down] >> shift) & 0xFF;
+                    int p22 = (src[down + 1] >> shift) & 0xFF;
+                    int gx = (p02 - p00) + 2 * (p12 - p10) + (p22 - p20);
+                    int gy = (p20 - p00) + 2 * (p21 - p01) + (p22 - p02);
+                    out |= magnitude(gx * gx + gy * gy) << shift;
+                }
+                dst[mid] = out;
+            }
+        }
+    }
+
+    /**
+     * (unsigned char) MAX(sqrt(squaredMagnitude), 70.0), as in jpegedge.c
+     */
+    private static int magnitude(int squaredMagnitude) {
+        if (squaredMagnitude <= MIN_VALUE * MIN_VALUE) {
+            return MIN_VALUE;
+        }
+        // Magnitudes go up to about 1442: the conversion keeps the low 8 bits, like the C cast on x86
+        return (int) Math.sqrt(squaredMagnitude) & 0xFF;
+    }
+
+    // Additional methods for BufferedImageOp
+    @Override
+    public java.awt.geom.Rectangle2D getBounds2D(BufferedImage src) { return null; }
+    @Override
+    public BufferedImage createCompatibleDestImage(BufferedImage src, ColorModel destCM) { return null; }
+    @Override
+    public java.awt.geom.Point2D getPoint2D(java.awt.geom.Point2D srcPt, java.awt.geom.Point2D dstPt) { return null; }
+    @Override
+    public java.awt.RenderingHints getRenderingHints() { return null; }
+}
@@ -0,0 +1,216 @@
+package ics432.imgapp;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.BufferedImageOp;
+import java.awt.image.ColorModel;
+import java.util.Arrays;
+
+/**
+ * An in-process, data-parallel version of the jpegfunk1/jpegfunk2 external filters
+ * (DPFunk1 and DPFunk2, which only differ in how they schedule their threads, and
+ * compute the same output). For each channel, a pixel's window extends by a radius
+ * that grows from 1 at the top left to 25 at the bottom right, and the output is
+ * max - median / 2 + min / 4 over the window, truncated to 8 bits like the C cast to
+ * unsigned char does.
+ * <p>
+ * Instead of sorting each window, a row is filtered with a sliding histogram: from one
+ * pixel to the next, the window only gains rows (its radius grows) and moves right, so
+ * only the columns and rows that enter or leave it are added to or removed from the
+ * histogram. The min, median, and max are then read from a two-level histogram in at
+ * most 32 steps each. Bands of rows are filtered in parallel on the shared
+ * data-parallel pools (see RowBandTask).
+ */
+public class DPFunkFilter implements BufferedImageOp {
+    // Number of tiles per thread that an image is split into, for load balancing
+    // (windows, and so the work per row, grow towards the bottom of the image)
+    private static final int TILES_PER_THREAD = 8;
+    private static final int COARSE_SHIFT = 4;
+    private static final int NUM_COARSE_BINS = 256 >> COARSE_SHIFT;
+
+    private final int numThreads;
+
+    public DPFunkFilter() {
+        this(PipelineConfig.getDPThreadCount());
+    }
+
+    /**
+     * Constructor
+     * @param numThreads The number of data-parallel threads
+     */
+    public DPFunkFilter(int numThreads) {
+        this.numThreads = numThreads;
+    }
+
+    @Override
+    public BufferedImage filter(BufferedImage src, BufferedImage dest) {
+        int width = src.getWidth();
+        int height = src.getHeight();
+
+        IntRaster srcRaster = IntRaster.of(src);
+        IntRaster destRaster = IntRaster.create(width, height);
+
+        int tileRows = Math.max(1, height / (numThreads * TILES_PER_THREAD));
+
+        int[] srcPixels = srcRaster.getPixels();
+        int[] destPixels = destRaster.getPixels();
+        RowBandTask.run(numThreads, height, tileRows,
+                (startRow, endRow) -> funk(srcPixels, destPixels, width, height, startRow, endRow));
+
+        return destRaster.getImage();
+    }
+
+    /**
+     * Compute the funk value of a band of rows
+     *
+     * @param src The source pixels
+     * @param dst The destination pixels
+     * @param width The image width
+     * @param height The image height
+     * @param startRow The first row to compute
+     * @param endRow One past the last row to compute
+     */
+    static void funk(int[] src, int[] dst, int width, int height, int startRow, int endRow) {
+        Histogram histogram = new Histogram(src, width);
+        for (int y = startRow; y < endRow; y++) {
+            // The current window is rows [top, bottom] x columns [left, right], or empty if top > bottom
+            int top = 1;
+            int bottom = 0;
+            int left = 0;
+            int right = -1;
+            histogram.clear();
+            for (int x = 0; x < width; x++) {
+                // Same arithmetic as compute_pixel_value() in jpegfunk1.c
+                double radius = Math.max(1.0, (5.0 * x / (double) width) + (20.0 * y / (double) height));
+                int newTop = (int) Math.max(0, y - radius);
+                int newBottom = (int) Math.min(height - 1, y + radius);
+                int newLeft = (int) Math.max(0, x - radius);
+                int newRight = (int) Math.min(width - 1, x + radius);
+
+                if (top > bottom || newTop > top || newBottom < bottom || newLeft < left || newRight < right
+                        || newLeft > right) {
+                    // The window does not just grow and slide right (e.g., on very narrow images): start over
+                    histogram.clear();
+                    histogram.add(newTop, newBottom, newLeft, newRight, 1);
+                } else {
+                    // New rows, over the current columns
+                    histogram.add(newTop, top - 1, left, right, 1);
+                    histogram.add(bottom + 1, newBottom, left, right, 1);
+                    // Columns that leave and enter, over the new rows
+                    histogram.add(newTop, newBottom, left, newLeft - 1, -1);
+                    histogram.add(newTop, newBottom, right + 1, newRight, 1);
+                }
+                top = newTop;
+                bottom = newBottom;
+                left = newLeft;
+                right = newRight;
+
+                int count = (bottom - top + 1) * (right - left + 1);
+                int out = 0;
+                for (int c = 0; c < 3; c++) {
+                    int max = histogram.max(c);
+                    int median = histogram.select(c, count / 2);
+                    int min = histogram.min(c);
+                    // MAX(0, max - median / 2.0 + min / 4.0), which is never negative, truncated like the C cast
+                    int funky = (4 * max - 2 * median + min) >> 2;
+                    out |= (funky & 0xFF) << (16 - 8 * c);
+                }
+                dst[y * width + x] = out;
+            }
+        }
+    }
+
+    /**
+     * The histograms (one per channel) of a window of pixels, with a coarse level
+     * of 16-value bins to find values by rank in at most 32 steps
+     */
+    private static final class Histogram {
+        private final int[] src;
+        private final int width;
+        private final int[][] fine = new int[3][256];
+        private final int[][] coarse = new int[3][NUM_COARSE_BINS];
+
+        Histogram(int[] src, int width) {
+            this.src = src;
+            this.width = width;
+        }
+
+        void clear() {
+            for (int c = 0; c < 3; c++) {
+                Arrays.fill(fine[c], 0);
+                Arrays.fill(coarse[c], 0);
+            }
+        }
+
+        /**
+         * Add (delta = 1) or remove (delta = -1) the pixels of a rectangle, which may be empty
+         */
+        void add(int top, int bottom, int left, int right, int delta) {
+            int[] red = fine[0];
+            int[] green = fine[1];
+            int[] blue = fine[2];
+            int[] coarseRed = coarse[0];
+            int[] coarseGreen = coarse[1];
+            int[] coarseBlue = coarse[2];
+            for (int y = top; y <= bottom; y++) {
+                int row = y * width;
+                for (int x = left; x <= right; x++) {
+                    int pixel = src[row + x];
+                    int r = (pixel >> 16) & 0xFF;
+                    int g = (pixel >> 8) & 0xFF;
+                    int b = pixel & 0xFF;
+                    red[r] += delta;
+                    green[g] += delta;
+                    blue[b] += delta;
+                    coarseRed[r >> COARSE_SHIFT] += delta;
+                    coarseGreen[g >> COARSE_SHIFT] += delta;
+                    coarseBlue[b >> COARSE_SHIFT] += delta;
+                }
+            }
+        }
+
+        /**
+         * Find the value at a given rank (0-based) in a channel's histogram
+         */
+        int select(int channel, int rank) {
+            int[] fine = this.fine[channel];
+            int[] coarse = this.coarse[channel];
+            int bin = 0;
+            while (rank >= coarse[bin]) {
+                rank -= coarse[bin++];
+            }
+            int v = bin << COARSE_SHIFT;
+            while (rank >= fine[v]) {
+                rank -= fine[v++];
+            }
+            return v;
+        }
+
+        int min(int channel) {
+            return select(channel, 0);
+        }
+
+        int max(int channel) {
+            int[] fine = this.fine[channel];
+            int[] coarse = this.coarse[channel];
+            int bin = NUM_COARSE_BINS - 1;
+            while (coarse[bin] == 0) {
+                bin--;
+            }
+            int v = (bin << COARSE_SHIFT) + (1 << COARSE_SHIFT) - 1;
+            while (fine[v] == 0) {
+                v--;
+            }
+            return v;
+        }
+    }
+
+    // Additional methods for BufferedImageOp
+    @Override
+    public java.awt.geom.Rectangle2D getBounds2D(BufferedImage src) { return null; }
+    @Override
+    public BufferedImage createCompatibleDestImage(BufferedImage src, ColorModel destCM) { return null; }
+    @Override
+    public java.awt.geom.Point2D getPoint2D(java.awt.geom.Point2D srcPt, java.awt.geom.Point2D dstPt) { return null; }
+    @Override
+    public java.awt.RenderingHints getRenderingHints() { return null; }
+}
@@ -3,42 +3,25 @@ package ics432.imgapp;
 import java.awt.image.BufferedImage;
 import java.awt.image.BufferedImageOp;
 import java.awt.image.ColorModel;
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.concurrent.*;
 
 public class DPMedianFilter implements BufferedImageOp {
+    // Minimum number of pixels in a tile
+    private static final int MIN_TILE_PIXELS = 16 * 1024;
+    // Number of tiles per thread that an image is split into, for load balancing
+    private static final int TILES_PER_THREAD = 4;
+
     private final int numThreads;
 
     public DPMedianFilter() {
-        this.numThreads = MainWindow.getDPThreadCount();
-    }
-
-    private boolean inBounds(int x, int y, int width, int height) {
-        return (x >= 0 && x < width && y >= 0 && y < height);
+        this(PipelineConfig.getDPThreadCount());
     }
 
-    protected int processPixel(BufferedImage image, int x, int y) {
-        int width = image.getWidth();
-        int height = image.getHeight();
-        byte[] newBytes = new byte[3];
-
-        for (int channel = 0; channel < 3; channel++) {
-            ArrayList<Byte> neighbors = new ArrayList<>();
-
-            for (int nx = x - 1; nx <= x + 1; nx++) {
-                for (int ny = y - 1; ny <= y + 1; ny++) {
-                    if (inBounds(nx, ny, width, height)) {
-                        neighbors.add(RGB.intToBytes(image.getRGB(nx, ny))[channel]);
-                    }
-                }
-            }
-
-            Collections.sort(neighbors);
-            newBytes[channel] = neighbors.get(neighbors.size() / 2);
-        }
-
-        return RGB.bytesToInt(newBytes);
+    /**
+     * Constructor
+     * @param numThreads The number of data-parallel threads
+     */
+    public DPMedianFilter(int numThreads) {
+        this.numThreads = numThreads;
     }
 
     @Override
@@ -46,47 +29,20 @@ public class DPMedianFilter implements BufferedImageOp {
         int width = src.getWidth();
         int height = src.getHeight();
 
-        dest = new BufferedImage(width, height, src.getType());
-        CyclicBarrier barrier = new CyclicBarrier(numThreads);
-
-        int rowsPerThread = height / numThreads;
-
-        Thread[] threads = new Thread[numThreads];
-
-        for (int threadIdx = 0; threadIdx < numThreads; threadIdx++) {
-            final int startRow = threadIdx * rowsPerThread;
-            final int endRow = (threadIdx == numThreads - 1) ? height : (startRow + rowsPerThread);
-
-            // Lambda expression uses effectively final startRow and endRow
-            BufferedImage finalDest = dest;
-            threads[threadIdx]= new Thread(() -> {
-                for (int i = startRow; i < endRow; i++) {
-                    for (int j = 0; j < width; j++) {
-                        finalDest.setRGB(j, i, processPixel(src, j, i));
-                    }
-                }
-
-                try {
-                    barrier.await();
-                } catch (InterruptedException | BrokenBarrierException e) {
-                    Thread.currentThread().interrupt();
-                }
-            });
-
-            threads[threadIdx].start();
-        }
+        IntRaster srcRaster = IntRaster.of(src);
+        IntRaster destRaster = IntRaster.create(width, height);
 
+        // Aim for a few tiles per thread so that idle threads can steal work,
+        // but don't make tiles so small that the task overhead dominates
+        int tileRows = Math.max(1, Math.max(MIN_TILE_PIXELS / Math.max(1, width),
+                height / (numThreads * TILES_PER_THREAD)));
 
-        // Join all threads to ensure completion
-        for (Thread thread : threads) {
-            try {
-                thread.join();
-            } catch (InterruptedException e) {
-                Thread.currentThread().interrupt();
-            }
-        }
+        int[] srcPixels = srcRaster.getPixels();
+        int[] destPixels = destRaster.getPixels();
+        RowBandTask.run(numThreads, height, tileRows,
+                (startRow, endRow) -> MedianKernel.median(srcPixels, destPixels, width, height, 1, startRow, endRow));
 
-        return dest;
+        return destRaster.getImage();
     }
 
     // Additional methods for BufferedImageOp
@@ -0,0 +1,217 @@
+package ics432.imgapp;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * A class that keeps a pool of long-lived external filter processes
+ * (e.g., "jpegedge --worker"), so that the process start-up cost is paid
+ * once per worker instead of once per image. A worker handles one image at
+ * a time: the pool starts a new one whenever all existing workers for that
+ * filter are busy, so there are at most as many workers as processor threads.
+ * <p>
+ * Images are exchanged as raw RGB planes through a memory-mapped file that
+ * each worker keeps, rather than as JPEG files, so that the filter does not
+ * decode or encode JPEGs: the Java app does, in its reader and writer stages.
+ * <p>
+ * This requires locally built filter programs (no Docker). They are looked
+ * for in the directory given by the ICS432_FILTERS_BIN environment variable,
+ * and then in the PATH (e.g., /bin after "sudo make install").
+ */
+class ExternalFilterPool {
+
+    private static final Path SHM_DIR = Paths.get("/dev/shm");
+    private static final ConcurrentHashMap<String, ConcurrentLinkedQueue<Worker>> idleWorkers = new ConcurrentHashMap<>();
+    // Cache of findExecutable() results (an empty Optional if there is no executable)
+    private static final ConcurrentHashMap<String, Optional<Path>> executables = new ConcurrentHashMap<>();
+
+    private ExternalFilterPool() {
+    }
+
+    /**
+     * Find the locally built executable of an external filter
+     *
+     * @param command The filter program name (e.g., "jpegedge")
+     * @return the path to the executable, or null if there is none
+     */
+    static Path findExecutable(String command) {
+        return executables.computeIfAbsent(command, c -> Optional.ofNullable(searchExecutable(c))).orElse(null);
+    }
+
+    private static Path searchExecutable(String command) {
+        String binDir = System.getenv("ICS432_FILTERS_BIN");
+        if (binDir != null) {
+            Path candidate = Paths.get(binDir, command);
+            if (Files.isExecutable(candidate)) {
+                return candidate;
+            }
+        }
+        String path = System.getenv("PATH");
+        if (path != null) {
+            for (String dir : path.split(File.pathSeparator)) {
+                Path candidate = Paths.get(dir, command);
+                if (Files.isExecutable(candidate)) {
+                    return candidate;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Apply an external filter to decoded pixels, using an idle worker or a new one.
+     * The pixels go through the worker's memory-mapped exchange file as R, G, and B
+     * planes (followed by the planes of the output image, written by the filter).
+     *
+     * @param executable The filter executable (see findExecutable())
+     * @param input The input pixels
+     * @param numThreads The number of data-parallel threads the filter should use
+     * @return the output pixels
+     * @throws IOException If the worker failed or reported an error
+     */
+    static IntRaster processRaw(Path executable, IntRaster input, int numThreads) throws IOException {
+        int width = input.getWidth();
+        int height = input.getHeight();
+        int planeSize = width * height;
+        IntRaster output = IntRaster.create(width, height);
+
+        Worker worker = acquire(executable);
+        String reply;
+        try {
+            MappedByteBuffer planes = worker.mapExchange(6L * planeSize);
+            int[] pixels = input.getPixels();
+            for (int i = 0; i < planeSize; i++) {
+                int pixel = pixels[i];
+                planes.put(i, (byte) (pixel >>> 16));
+                planes.put(planeSize + i, (byte) (pixel >>> 8));
+                planes.put(2 * planeSize + i, (byte) pixel);
+            }
+
+            reply = worker.call("RAW\t" + worker.exchangeFile + "\t" + width + "\t" + height + "\t" + numThreads);
+
+            if (reply.equals("OK")) {
+                int[] outputPixels = output.getPixels();
+                for (int i = 0; i < planeSize; i++) {
+                    outputPixels[i] = ((planes.get(3 * planeSize + i) & 0xFF) << 16)
+                            | ((planes.get(4 * planeSize + i) & 0xFF) << 8)
+                            | (planes.get(5 * planeSize + i) & 0xFF);
+                }
+            }
+        } catch (IOException e) {
+            worker.destroy(); // Don't put a broken worker back in the pool
+            throw e;
+        }
+        release(executable, worker);
+        if (!reply.equals("OK")) {
+            throw new IOException(executable.getFileName() + " failed: " + reply);
+        }
+        return output;
+    }
+
+    private static Worker acquire(Path executable) throws IOException {
+        Worker worker = idleWorkers.computeIfAbsent(executable.toString(), k -> new ConcurrentLinkedQueue<>()).poll();
+        return (worker != null) ? worker : new Worker(executable);
+    }
+
+    private static void release(Path executable, Worker worker) {
+        idleWorkers.get(executable.toString()).add(worker);
+    }
+
+    /**
+     * A long-lived filter process
+     */
+    private static class Worker {
+        private final Process process;
+        private final BufferedWriter requests;
+        private final BufferedReader replies;
+        // The memory-mapped file through which raw pixels are exchanged (created on first use)
+        private Path exchangeFile;
+        private FileChannel exchangeChannel;
+        private MappedByteBuffer exchange;
+
+        Worker(Path executable) throws IOException {
+            ProcessBuilder pb = new ProcessBuilder(executable.toString(), "--worker");
+            pb.redirectError(ProcessBuilder.Redirect.INHERIT);
+            this.process = pb.start();
+            this.requests = new BufferedWriter(new OutputStreamWriter(process.getOutputStream(), StandardCharsets.UTF_8));
+            this.replies = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8));
+        }
+
+        /**
+         * Send a request and wait for the reply
+         *
+         * @param request The request line
+         * @return the reply line
+         * @throws IOException If the process died
+         */
+        String call(String request) throws IOException {
+            requests.write(request);
+            requests.newLine();
+            requests.flush();
+            String reply = replies.readLine();
+            if (reply == null) {
+                throw new IOException("External filter worker exited (status " + exitStatus() + ")");
+            }
+            return reply;
+        }
+
+        private String exitStatus() {
+            try {
+                return Integer.toString(process.waitFor());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return "unknown";
+            }
+        }
+
+        /**
+         * Map the exchange file, growing it if needed
+         *
+         * @param size The number of bytes needed
+         * @return the mapped file content
+         * @throws IOException If the file could not be created or mapped
+         */
+        MappedByteBuffer mapExchange(long size) throws IOException {
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("Image too large for the exchange file");
+            }
+            if (exchangeChannel == null) {
+                // Prefer a RAM-backed file system, so that the pages never need to go to disk
+                Path dir = Files.isDirectory(SHM_DIR) && Files.isWritable(SHM_DIR)
+                        ? SHM_DIR : Paths.get(System.getProperty("java.io.tmpdir"));
+                exchangeFile = Files.createTempFile(dir, "ics432-exchange-", ".rgb");
+                exchangeFile.toFile().deleteOnExit();
+                exchangeChannel = FileChannel.open(exchangeFile, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            }
+            if (exchange == null || exchange.capacity() < size) {
+                exchange = exchangeChannel.map(FileChannel.MapMode.READ_WRITE, 0, size); // Extends the file
+            }
+            return exchange;
+        }
+
+        void destroy() {
+            process.destroy();
+            if (exchangeChannel != null) {
+                try {
+                    exchangeChannel.close();
+                    Files.deleteIfExists(exchangeFile);
+                } catch (IOException ignore) {
+                }
+            }
+        }
+    }
+}
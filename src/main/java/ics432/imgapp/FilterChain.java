@@ -0,0 +1,131 @@
+package ics432.imgapp;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A class that defines an ordered chain of filters that a job applies to each
+ * image in a single pass: the image stays decoded in memory between steps, and
+ * only the output of the last step is encoded. A chain is named after its
+ * steps, joined with "+" (e.g., "Median+Solarize"), and that name is used
+ * wherever a filter name is (output file names, cache keys, etc.). A single
+ * filter is a chain of one step.
+ * <p>
+ * An external filter can only be a step of a longer chain if it can run on
+ * decoded pixels, i.e., if it is built locally (see WorkUnitExternal.runsOnPixels()).
+ * <p>
+ * A job looks up its chain once, and its work units share it (see WorkUnit.getChain()).
+ */
+final class FilterChain {
+
+    static final String SEPARATOR = "+";
+
+    private final String name;
+    private final List<FilterRegistry.FilterInfo> steps;
+    private final boolean runsOnPixels; // Whether all the external steps can run on decoded pixels
+
+    private FilterChain(String name, List<FilterRegistry.FilterInfo> steps, boolean runsOnPixels) {
+        this.name = name;
+        this.steps = steps;
+        this.runsOnPixels = runsOnPixels;
+    }
+
+    /**
+     * Look up the filters of a chain
+     *
+     * @param chainName The chain name (e.g., "Median+Solarize", or just "Median")
+     * @return the chain
+     * @throws IllegalArgumentException If a filter is unknown, or if an external filter cannot be chained
+     */
+    static FilterChain of(String chainName) {
+        List<FilterRegistry.FilterInfo> steps = new ArrayList<>();
+        for (String filterName : chainName.split("\\" + SEPARATOR)) {
+            if (!FilterRegistry.contains(filterName)) {
+                throw new IllegalArgumentException("Unknown filter " + filterName);
+            }
+            steps.add(FilterRegistry.get(filterName));
+        }
+        boolean runsOnPixels = true;
+        for (FilterRegistry.FilterInfo step : steps) {
+            if (step.isExternal() && !WorkUnitExternal.runsOnPixels(step.getExternalCommand())) {
+                if (steps.size() > 1) {
+                    throw new IllegalArgumentException(step.getName()
+                            + " can only be part of a chain if its filter program is built locally");
+                }
+                runsOnPixels = false;
+            }
+        }
+        return new FilterChain(chainName, List.copyOf(steps), runsOnPixels);
+    }
+
+    /**
+     * Name a chain
+     *
+     * @param filterNames The filter names, in order
+     * @return the chain name
+     */
+    static String nameOf(List<String> filterNames) {
+        return String.join(SEPARATOR, filterNames);
+    }
+
+    String getName() {
+        return name;
+    }
+
+    List<FilterRegistry.FilterInfo> getSteps() {
+        return steps;
+    }
+
+    /**
+     * @return true if the chain is a single external filter, whose work units are WorkUnitExternal
+     */
+    boolean isExternal() {
+        return steps.size() == 1 && steps.getFirst().isExternal();
+    }
+
+    /**
+     * @return true if the chain is a single external filter that is not built locally,
+     * and must be run with Docker (see WorkUnitExternal.runsInDocker())
+     */
+    boolean runsInDocker() {
+        return !runsOnPixels;
+    }
+
+    /**
+     * @return the parameters that affect the chain's output (part of the result cache keys)
+     */
+    String getParameters() {
+        return String.join(SEPARATOR, steps.stream().map(FilterRegistry.FilterInfo::getParameters).toList());
+    }
+
+    /**
+     * Apply all the steps of the chain to an image. Each run of consecutive
+     * pointwise steps is fused into a single lookup-table pass
+     * (see PointwiseLut).
+     *
+     * @param image The input image
+     * @return the output image of the last step
+     * @throws IOException If an external filter failed
+     */
+    BufferedImage apply(BufferedImage image) throws IOException {
+        PointwiseLut lut = null; // The lookup tables of the pending run of pointwise steps
+        for (FilterRegistry.FilterInfo step : steps) {
+            if (step.getLut() != null) {
+                lut = (lut == null) ? step.getLut() : lut.andThen(step.getLut());
+                continue;
+            }
+            if (lut != null) {
+                image = lut.apply(image);
+                lut = null;
+            }
+            if (step.isExternal()) {
+                image = WorkUnitExternal.applyToPixels(step.getExternalCommand(), IntRaster.of(image)).getImage();
+            } else {
+                image = step.getFilter().filter(image, null);
+            }
+        }
+        return (lut != null) ? lut.apply(image) : image;
+    }
+}
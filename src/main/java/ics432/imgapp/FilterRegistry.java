@@ -0,0 +1,169 @@
+package ics432.imgapp;
+
+import com.jhlabs.image.InvertFilter;
+import com.jhlabs.image.OilFilter;
+import com.jhlabs.image.PointFilter;
+import com.jhlabs.image.SolarizeFilter;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.BufferedImageOp;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.function.Supplier;
+
+/**
+ * A class that defines the registry of all the filters known to the app,
+ * together with metadata that decides how they are run (instead of matching
+ * on filter names): pointwise filters are applied as lookup tables (see
+ * PointwiseLut), thread-safe filters are built once and shared, and external
+ * filters go through WorkUnitExternal.
+ */
+final class FilterRegistry {
+
+    /**
+     * The kind of computation a filter does
+     */
+    enum Kind {
+        // Each channel of an output pixel only depends on the same channel of the same
+        // input pixel (the filter must then be a thread-safe jhlabs PointFilter)
+        POINTWISE,
+        // Each output pixel depends on a neighborhood of the input pixel
+        NEIGHBORHOOD
+    }
+
+    /**
+     * A filter and its metadata
+     */
+    static final class FilterInfo {
+        private final String name;
+        private final String externalCommand;
+        private final String parameters;
+        private final Supplier<BufferedImageOp> factory;
+        private final BufferedImageOp sharedInstance;
+        private final PointwiseLut lut;
+
+        /**
+         * Constructor
+         *
+         * @param name The filter name
+         * @param kind The kind of computation
+         * @param threadSafe Whether a single instance can be used by several threads at once
+         * @param externalCommand The external program that implements the filter, or null if in-process
+         * @param parameters The parameters that affect the filter's output (part of the result cache keys)
+         * @param factory The factory for in-process filter instances, or null if external
+         */
+        private FilterInfo(String name, Kind kind, boolean threadSafe,
+                           String externalCommand, String parameters, Supplier<BufferedImageOp> factory) {
+            this.name = name;
+            this.externalCommand = externalCommand;
+            this.parameters = parameters;
+            this.factory = factory;
+            // Thread-safe filters are built once and shared
+            this.sharedInstance = (factory != null && threadSafe) ? factory.get() : null;
+            // Pointwise filters are compiled into lookup tables
+            this.lut = (kind == Kind.POINTWISE) ? PointwiseLut.compile((PointFilter) sharedInstance) : null;
+        }
+
+        String getName() {
+            return name;
+        }
+
+        boolean isExternal() {
+            return externalCommand != null;
+        }
+
+        String getExternalCommand() {
+            return externalCommand;
+        }
+
+        String getParameters() {
+            return parameters;
+        }
+
+        /**
+         * @return the lookup tables of a pointwise filter, or null for other filters
+         */
+        PointwiseLut getLut() {
+            return lut;
+        }
+
+        /**
+         * Get an instance of the filter: the shared instance if the filter is
+         * thread-safe, or a new one otherwise
+         *
+         * @return the filter
+         */
+        BufferedImageOp getFilter() {
+            if (factory == null) {
+                throw new IllegalStateException("Filter " + name + " is external (" + externalCommand + ")");
+            }
+            return sharedInstance != null ? sharedInstance : factory.get();
+        }
+    }
+
+    private static final LinkedHashMap<String, FilterInfo> filters = new LinkedHashMap<>();
+    private static final List<String> filterNames; // Registration order, set once all filters are registered
+
+    static {
+        register(new FilterInfo("Invert", Kind.POINTWISE, true, null, "", InvertFilter::new));
+        register(new FilterInfo("Solarize", Kind.POINTWISE, true, null, "", () -> {
+            // Filter a dummy image so that the lookup tables, which jhlabs builds lazily
+            // without synchronization, exist before the instance is shared
+            SolarizeFilter solarizeFilter = new SolarizeFilter();
+            solarizeFilter.filter(new BufferedImage(1, 1, BufferedImage.TYPE_INT_RGB), null);
+            return solarizeFilter;
+        }));
+        register(new FilterInfo("Oil4", Kind.NEIGHBORHOOD, false, null, "range=4", () -> {
+            OilFilter oil4Filter = new OilFilter();
+            oil4Filter.setRange(4);
+            return oil4Filter;
+        }));
+        register(new FilterInfo("Median", Kind.NEIGHBORHOOD, true, null, "radius=1", MedianFilter::new));
+        // Not shared, so that each image picks up the current data-parallel thread count
+        register(new FilterInfo("DPMedian", Kind.NEIGHBORHOOD, false, null, "radius=1", DPMedianFilter::new));
+        register(new FilterInfo("DPEdge", Kind.NEIGHBORHOOD, true, "jpegedge", "", null));
+        // In-process version of DPEdge, not shared for the same reason as DPMedian
+        register(new FilterInfo("DPEdgeJava", Kind.NEIGHBORHOOD, false, null, "", DPEdgeFilter::new));
+        register(new FilterInfo("DPFunk1", Kind.NEIGHBORHOOD, true, "jpegfunk1", "", null));
+        register(new FilterInfo("DPFunk2", Kind.NEIGHBORHOOD, true, "jpegfunk2", "", null));
+        // In-process version of DPFunk1 and DPFunk2 (which compute the same output)
+        register(new FilterInfo("DPFunkJava", Kind.NEIGHBORHOOD, false, null, "", DPFunkFilter::new));
+        filterNames = List.copyOf(filters.keySet());
+    }
+
+    private FilterRegistry() {
+    }
+
+    private static void register(FilterInfo info) {
+        filters.put(info.getName(), info);
+    }
+
+    /**
+     * Look up a filter by name
+     *
+     * @param filterName The filter name
+     * @return the filter and its metadata
+     */
+    static FilterInfo get(String filterName) {
+        FilterInfo info = filters.get(filterName);
+        if (info == null) {
+            throw new RuntimeException("Unknown filter " + filterName);
+        }
+        return info;
+    }
+
+    /**
+     * @param filterName A filter name
+     * @return true if the filter is registered
+     */
+    static boolean contains(String filterName) {
+        return filters.containsKey(filterName);
+    }
+
+    /**
+     * @return the names of all filters, in registration order (an unmodifiable list)
+     */
+    static List<String> getFilterNames() {
+        return filterNames;
+    }
+}
@@ -0,0 +1,237 @@
+package ics432.imgapp;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A command-line entry point that runs one job through the same reader/processor/writer
+ * pipeline as the JavaFX app, without any window, e.g., on a server without a display.
+ * The pipeline does not load any JavaFX class (only the JavaFX decoder would, and it is
+ * not available here), so it also runs without the JavaFX jars on the class path.
+ * <p>
+ * Usage: HeadlessBatchRunner &lt;input directory or glob&gt; &lt;filter name&gt; &lt;output directory&gt;
+ * [--readers N] [--processors N] [--writers N] [--dp-threads N] [--no-cache] [--no-simd]
+ * <p>
+ * The input is either a directory, in which case all of its jpg files are processed,
+ * or a glob on file names (e.g., "images/*.jpg"). The filter name can also be a chain
+ * of filters (e.g., "Median+Solarize", see FilterChain). When done, it prints the time
+ * spent in each stage and the throughput. An image that cannot be processed (e.g., a
+ * corrupt input file) does not stop the others: the failed images are listed at the
+ * end, and the exit status is then 1.
+ */
+public class HeadlessBatchRunner {
+
+    // Capacity of the pipeline buffers, as in the MainWindow
+    private static final int BUFFER_CAPACITY = 16;
+    private static final int JOB_ID = 1;
+
+    /**
+     * main() method
+     *
+     * @param args Command-line arguments (see the class comment)
+     */
+    public static void main(String[] args) {
+        if (args.length < 3) {
+            usage();
+        }
+        Path input = Paths.get(args[0]);
+        String filterName = args[1];
+        Path targetDir = Paths.get(args[2]);
+        int numReaders = Runtime.getRuntime().availableProcessors();
+        int numProcessors = 1;
+        int numWriters = 1;
+        int numDPThreads = 1;
+        int i = 3;
+        while (i < args.length) {
+            String option = args[i++];
+            if (option.equals("--no-cache")) {
+                PipelineConfig.setUseResultCache(false);
+                continue;
+            }
+            if (option.equals("--no-simd")) {
+                PipelineConfig.setUseSimd(false);
+                continue;
+            }
+            if (i == args.length) {
+                usage();
+            }
+            int value = parsePositiveInt(args[i++]);
+            switch (option) {
+                case "--readers" -> numReaders = value;
+                case "--processors" -> numProcessors = value;
+                case "--writers" -> numWriters = value;
+                case "--dp-threads" -> numDPThreads = value;
+                default -> usage();
+            }
+        }
+
+        FilterChain chain;
+        try {
+            chain = FilterChain.of(filterName);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage() + " (known filters: "
+                    + String.join(", ", FilterRegistry.getFilterNames()) + ")");
+            System.exit(1);
+            return;
+        }
+        List<Path> inputFiles;
+        try {
+            inputFiles = listInputFiles(input);
+            Files.createDirectories(targetDir);
+        } catch (IOException e) {
+            System.err.println("Error: " + e.getMessage());
+            System.exit(1);
+            return;
+        }
+        if (inputFiles.isEmpty()) {
+            System.err.println("No input files match " + input);
+            System.exit(1);
+        }
+        PipelineConfig.setDPThreadCount(numDPThreads);
+
+        // Start the pipeline (daemon threads, so that the JVM exits when the job is done)
+        JobScheduler<WorkUnit> readBuffer = new JobScheduler<>(BUFFER_CAPACITY);
+        JobScheduler<WorkUnit> processBuffer = new JobScheduler<>(BUFFER_CAPACITY);
+        BoundedBuffer<WorkUnit> writeBuffer = new BlockingBoundedBuffer<>(BUFFER_CAPACITY);
+        for (int r = 0; r < numReaders; r++) {
+            startDaemon(new JobThreads.ReaderThread(readBuffer, processBuffer));
+        }
+        for (int p = 0; p < numProcessors; p++) {
+            startDaemon(new JobThreads.ProcessorThread(processBuffer, writeBuffer));
+        }
+        for (int w = 0; w < numWriters; w++) {
+            startDaemon(new JobThreads.WriterThread(writeBuffer));
+        }
+
+        // Skip the inputs that an earlier, unfinished (or failed) run of this job completed
+        JobManifest jobManifest;
+        List<Path> pendingInputFiles;
+        try {
+            jobManifest = new JobManifest(targetDir, filterName, inputFiles);
+            pendingInputFiles = jobManifest.pendingInputs(inputFiles);
+        } catch (IOException e) {
+            System.err.println("Error: " + e.getMessage());
+            System.exit(1);
+            return;
+        }
+        if (pendingInputFiles.size() < inputFiles.size()) {
+            System.out.println("Resuming job: " + (inputFiles.size() - pendingInputFiles.size())
+                    + " of " + inputFiles.size() + " images already done");
+        }
+        long numRetried = pendingInputFiles.stream().filter(jobManifest::hasFailed).count();
+        if (numRetried > 0) {
+            System.out.println("Retrying " + numRetried + " image" + (numRetried == 1 ? "" : "s")
+                    + " that failed in an earlier run");
+        }
+
+        double startTime = System.currentTimeMillis() / 1000.0;
+        NumProcessCounter numProcessCounter = new NumProcessCounter();
+        TotalProcessAndWriteTime totalProcessAndWriteTime = new TotalProcessAndWriteTime();
+        JobListener jobListener = (outputFile, numImagesProcessed, totalImagesInJob) -> { };
+        double totalInputSize = 0.0;
+        boolean external = chain.isExternal();
+        try {
+            for (Path path : pendingInputFiles) {
+                WorkUnit workUnit = external
+                        ? new WorkUnitExternal(JOB_ID, path, targetDir, chain, jobListener,
+                                numProcessCounter, pendingInputFiles.size(), totalProcessAndWriteTime, jobManifest)
+                        : new WorkUnit(JOB_ID, path, targetDir, chain, jobListener,
+                                numProcessCounter, pendingInputFiles.size(), totalProcessAndWriteTime, jobManifest);
+                readBuffer.put(JOB_ID, workUnit);
+                totalInputSize += path.toFile().length() / 1024.0 / 1024.0;
+            }
+            // Wait until all images are processed (or failed)
+            synchronized (numProcessCounter) {
+                while (numProcessCounter.getNumImageDone() < pendingInputFiles.size()) {
+                    numProcessCounter.wait();
+                }
+            }
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        }
+        double totalJobTime = System.currentTimeMillis() / 1000.0 - startTime;
+        // Unless some images failed, the job is complete and there is nothing left to resume
+        jobManifest.close(numProcessCounter.getNumImageFailed());
+
+        int numProcessed = numProcessCounter.getNumImageProcessed();
+        System.out.printf("Processed %d image%s (%.2f MB) with %s in %.2f seconds%n",
+                numProcessed, numProcessed == 1 ? "" : "s", totalInputSize, filterName, totalJobTime);
+        System.out.printf("Read: %.2f seconds  Process: %.2f seconds  Write: %.2f seconds (summed over threads)%n",
+                totalProcessAndWriteTime.getReadTime(),
+                totalProcessAndWriteTime.getProcessTime(),
+                totalProcessAndWriteTime.getWriteTime());
+        System.out.printf("Throughput: %.2f images/sec  %.2f MB/sec%n",
+                numProcessed / totalJobTime, totalInputSize / totalJobTime);
+        if (PipelineConfig.useResultCache()) {
+            System.out.println("Result cache: " + Statistics.INSTANCE.toString("cache_hits") + " hits, "
+                    + Statistics.INSTANCE.toString("cache_misses") + " misses");
+        }
+        List<String> failures = numProcessCounter.getFailures();
+        if (!failures.isEmpty()) {
+            System.err.println("Failed: " + failures.size() + " image" + (failures.size() == 1 ? "" : "s"));
+            for (String failure : failures) {
+                System.err.println("  " + failure);
+            }
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Method to list the input files
+     *
+     * @param input A directory (all its jpg files) or a glob on file names
+     * @return The input files, sorted by name
+     * @throws IOException If the directory could not be read
+     */
+    private static List<Path> listInputFiles(Path input) throws IOException {
+        Path dir;
+        String glob;
+        if (Files.isDirectory(input)) {
+            dir = input;
+            glob = "*.{jpg,jpeg,JPG,JPEG}";
+        } else {
+            dir = (input.getParent() != null) ? input.getParent() : Paths.get(".");
+            glob = input.getFileName().toString();
+        }
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, glob)) {
+            for (Path path : stream) {
+                if (Files.isRegularFile(path)) {
+                    files.add(path.toAbsolutePath());
+                }
+            }
+        }
+        files.sort(null);
+        return files;
+    }
+
+    private static void startDaemon(Runnable runnable) {
+        Thread thread = new Thread(runnable);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private static int parsePositiveInt(String value) {
+        try {
+            int n = Integer.parseInt(value);
+            if (n > 0) {
+                return n;
+            }
+        } catch (NumberFormatException ignore) {
+        }
+        System.err.println("Not a positive integer: " + value);
+        System.exit(1);
+        return 0;
+    }
+
+    private static void usage() {
+        System.err.println("Usage: HeadlessBatchRunner <input directory or glob> <filter name> <output directory>"
+                + " [--readers N] [--processors N] [--writers N] [--dp-threads N] [--no-cache] [--no-simd]");
+        System.exit(1);
+    }
+}
@@ -18,23 +18,15 @@ import java.util.ArrayList;
 public class ICS432ImgApp extends Application {
 
     public static final ArrayList<String> filterNames;
-    public static final Statistics statistics;
+    public static final ArrayList<String> decoderNames;
 
 
     static {
         // Filters
-        filterNames = new ArrayList<>();
-        filterNames.add("Invert");
-        filterNames.add("Solarize");
-        filterNames.add("Oil4");
-        filterNames.add("Median");
-        filterNames.add("DPMedian");
-        filterNames.add("DPEdge");
-        filterNames.add("DPFunk1");
-        filterNames.add("DPFunk2");
-
-        // Statistics
-        statistics = new Statistics();
+        filterNames = new ArrayList<>(FilterRegistry.getFilterNames());
+
+        // Image decoders
+        decoderNames = new ArrayList<>(PipelineConfig.DECODER_NAMES);
     }
     /**
      * start() JavaFx Method to start the application
@@ -0,0 +1,134 @@
+package ics432.imgapp;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.Raster;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.util.Arrays;
+
+/**
+ * A class that gives filter kernels direct access to the pixels of an image,
+ * as a row-major int[] of packed RGB values (0xRRGGBB, one int per pixel),
+ * without going through the color model for every pixel like
+ * getRGB/setRGB do.
+ * <p>
+ * Images are normalized to this layout: a TYPE_INT_RGB (or TYPE_INT_ARGB)
+ * image is used as is, a TYPE_3BYTE_BGR image (what ImageIO decodes JPEG
+ * files to) is converted with a tight loop over its byte[], and any other
+ * image is converted by drawing it.
+ */
+final class IntRaster {
+
+    private static final int[] BGR_BAND_OFFSETS = {2, 1, 0};
+
+    private final BufferedImage image;
+    private final int[] pixels;
+    private final int width;
+    private final int height;
+
+    /**
+     * Constructor
+     *
+     * @param image A TYPE_INT_RGB or TYPE_INT_ARGB image whose int[] is laid out row by row
+     */
+    private IntRaster(BufferedImage image) {
+        this.image = image;
+        this.pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+        this.width = image.getWidth();
+        this.height = image.getHeight();
+    }
+
+    /**
+     * Create a new (black) TYPE_INT_RGB raster
+     *
+     * @param width The image width
+     * @param height The image height
+     * @return the raster
+     */
+    static IntRaster create(int width, int height) {
+        return create(width, height, BufferedImage.TYPE_INT_RGB);
+    }
+
+    /**
+     * Create a new (black, or transparent) raster of a given type
+     *
+     * @param width The image width
+     * @param height The image height
+     * @param type TYPE_INT_RGB or TYPE_INT_ARGB
+     * @return the raster
+     */
+    static IntRaster create(int width, int height, int type) {
+        return new IntRaster(new BufferedImage(width, height, type));
+    }
+
+    /**
+     * Get the raster of an image, without copying it if its pixels are
+     * already laid out as packed ints
+     *
+     * @param image The image
+     * @return the raster
+     */
+    static IntRaster of(BufferedImage image) {
+        int type = image.getType();
+        if ((type == BufferedImage.TYPE_INT_RGB || type == BufferedImage.TYPE_INT_ARGB) && isContiguous(image.getRaster())) {
+            return new IntRaster(image);
+        }
+
+        IntRaster raster = create(image.getWidth(), image.getHeight());
+        if (type == BufferedImage.TYPE_3BYTE_BGR && isContiguous(image.getRaster())) {
+            byte[] bgr = ((DataBufferByte) image.getRaster().getDataBuffer()).getData();
+            int[] pixels = raster.pixels;
+            for (int i = 0, j = 0; i < pixels.length; i++, j += 3) {
+                pixels[i] = ((bgr[j + 2] & 0xFF) << 16) | ((bgr[j + 1] & 0xFF) << 8) | (bgr[j] & 0xFF);
+            }
+        } else {
+            Graphics2D g = raster.image.createGraphics();
+            g.drawImage(image, 0, 0, null);
+            g.dispose();
+        }
+        return raster;
+    }
+
+    /**
+     * Whether a raster's pixels start at the beginning of its data buffer and have no row padding
+     */
+    private static boolean isContiguous(Raster raster) {
+        if (raster.getSampleModelTranslateX() != 0 || raster.getSampleModelTranslateY() != 0
+                || raster.getDataBuffer().getNumBanks() != 1 || raster.getDataBuffer().getOffset() != 0) {
+            return false;
+        }
+        if (raster.getSampleModel() instanceof SinglePixelPackedSampleModel sm) {
+            return sm.getScanlineStride() == raster.getWidth();
+        }
+        if (raster.getSampleModel() instanceof ComponentSampleModel sm) {
+            return sm.getPixelStride() == 3 && sm.getScanlineStride() == 3 * raster.getWidth()
+                    && Arrays.equals(sm.getBandOffsets(), BGR_BAND_OFFSETS);
+        }
+        return false;
+    }
+
+    /**
+     * @return the pixels, row by row (pixel (x, y) is at index y * width + x)
+     */
+    int[] getPixels() {
+        return pixels;
+    }
+
+    int getWidth() {
+        return width;
+    }
+
+    int getHeight() {
+        return height;
+    }
+
+    /**
+     * @return the image backed by this raster's pixels
+     */
+    BufferedImage getImage() {
+        return image;
+    }
+}
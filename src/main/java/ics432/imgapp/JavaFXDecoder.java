@@ -0,0 +1,35 @@
+package ics432.imgapp;
+
+import javafx.embed.swing.SwingFXUtils;
+import javafx.scene.image.Image;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * A class that decodes images with JavaFX, when the JavaFX decoder is selected in
+ * the main window (see PipelineConfig.useJavaFXDecoder()). It is apart from WorkUnit
+ * so that the pipeline stages do not load any JavaFX class otherwise, e.g., in the
+ * HeadlessBatchRunner, where JavaFX may not even be on the class path.
+ */
+final class JavaFXDecoder {
+
+    private JavaFXDecoder() {
+    }
+
+    /**
+     * Decode an image into a JavaFX Image, then convert it with SwingFXUtils.fromFXImage
+     *
+     * @param inputFile The image file
+     * @return the decoded image
+     * @throws IOException If the image could not be decoded
+     */
+    static BufferedImage decode(Path inputFile) throws IOException {
+        Image image = new Image(inputFile.toUri().toURL().toString());
+        if (image.isError()) {
+            throw new IOException(String.valueOf(image.getException()));
+        }
+        return SwingFXUtils.fromFXImage(image, null);
+    }
+}
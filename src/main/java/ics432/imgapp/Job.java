@@ -1,11 +1,5 @@
 package ics432.imgapp;
 
-import com.jhlabs.image.InvertFilter;
-import com.jhlabs.image.OilFilter;
-import com.jhlabs.image.SolarizeFilter;
-import javafx.embed.swing.SwingFXUtils;
-import javafx.scene.image.Image;
-
 import javax.imageio.ImageIO;
 import javax.imageio.stream.ImageOutputStream;
 import java.awt.image.BufferedImage;
@@ -86,7 +80,7 @@ class Job {
 
         outcome.accept(new ImgTransformOutcome(true, inputFile, outputFile, null));
         // Update the statistics
-        ICS432ImgApp.statistics.newlyProcessedImage(filterName, inputSize, executionTime);
+        Statistics.INSTANCE.newlyProcessedImage(filterName, inputSize, executionTime);
         return true;
     }
 
@@ -104,14 +98,15 @@ class Job {
         long readStartTime = System.currentTimeMillis();
 
 
-        // Load the image from file
-        Image image;
+        // Load the image from file, straight into a filter-ready BufferedImage
+        BufferedImage image;
         try {
-            image = new Image(inputFile.toUri().toURL().toString());
-            if (image.isError()) {
+            image = ImageIO.read(inputFile.toFile());
+            if (image == null) {
                 throw new IOException("Error while reading from " + inputFile.toAbsolutePath() +
-                        " (" + image.getException().toString() + ")");
+                        " (unsupported image format)");
             }
+            image = IntRaster.of(image).getImage();
         } catch (IOException e) {
             throw new IOException("Error while reading from " + inputFile.toAbsolutePath());
         }
@@ -120,12 +115,12 @@ class Job {
         totalReadTime += ((readEndTime - readStartTime)/1000.0);
 
         // Create the filter
-        BufferedImageOp filter = createFilter(filterName);
+        BufferedImageOp filter = FilterRegistry.get(filterName).getFilter();
 
         // Process the image
         //start the process timer
         long processStartTime = System.currentTimeMillis();
-        BufferedImage img = filter.filter(SwingFXUtils.fromFXImage(image, null), null);
+        BufferedImage img = filter.filter(image, null);
         //end the process timer and compute the total process time
         long processEndTime = System.currentTimeMillis();
         totalProcessTime += ((processEndTime - processStartTime)/1000.0);
@@ -154,27 +149,6 @@ class Job {
         return Paths.get(outputPath);
     }
 
-    /**
-     * A helper method to create a Filter object
-     *
-     * @param filterName the filter's name
-     */
-    private BufferedImageOp createFilter(String filterName) {
-        switch (filterName) {
-            case "Invert":
-                return new InvertFilter();
-            case "Solarize":
-                return new SolarizeFilter();
-            case "Oil4":
-                OilFilter oil4Filter = new OilFilter();
-                oil4Filter.setRange(4);
-                return oil4Filter;
-            default:
-                throw new RuntimeException("Unknown filter " + filterName);
-        }
-    }
-
-
     /**
      * Getter methods
      */
@@ -0,0 +1,19 @@
+package ics432.imgapp;
+
+import java.nio.file.Path;
+
+/**
+ * An interface for objects that follow the progress of a job (e.g., a JobWindow),
+ * which the writer stage notifies each time one of the job's output images is written.
+ */
+interface JobListener {
+
+    /**
+     * Method called by a writer thread when an output image has been written
+     *
+     * @param outputFile The output image file
+     * @param numImagesProcessed The number of images of the job done so far (processed or failed)
+     * @param totalImagesInJob The total number of images in the job
+     */
+    void imageWritten(Path outputFile, int numImagesProcessed, int totalImagesInJob);
+}
@@ -0,0 +1,203 @@
+package ics432.imgapp;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.List;
+
+/**
+ * A class that implements the on-disk progress manifest of a job, so that a job
+ * that was cancelled, or whose JVM died, can be re-run from where it stopped.
+ * The manifest is an append-only file in the target directory, named after the
+ * filter and a hash of the job's input files (so that two jobs with the same
+ * filter and target directory, but different inputs, do not share a manifest).
+ * The writer stage adds a line for each input image once its output image is
+ * durably on disk. A line holds the input file path, size, and modification time,
+ * so that an input that changed since is processed again.
+ * <p>
+ * Inputs that failed (see WorkUnit.markFailed()) are recorded too, on lines that
+ * start with "FAILED" and end with the reason. They are not completed, so that a
+ * re-run retries them (e.g., once a corrupt input file is replaced).
+ * <p>
+ * The manifest is deleted once the job completes without failures. Otherwise, it
+ * is kept, so that re-running the job only retries the failed inputs.
+ */
+final class JobManifest {
+
+    private static final String FAILED_PREFIX = "FAILED\t";
+
+    private final Path targetDir;
+    private final String filterName;
+    private final Path file;
+    // The inputs completed, and failed, by earlier runs (as in the lines of the manifest when it was opened)
+    private final HashSet<String> completed;
+    private final HashSet<String> failed;
+    private FileChannel channel; // Opened on the first append
+    private boolean lastLineCut; // Whether the manifest ends with a line cut short by a crash
+
+    /**
+     * Constructor
+     *
+     * @param targetDir The target directory of the job
+     * @param filterName The filter of the job
+     * @param inputFiles All the input files of the job
+     * @throws IOException If the existing manifest could not be read
+     */
+    JobManifest(Path targetDir, String filterName, List<Path> inputFiles) throws IOException {
+        this.targetDir = targetDir;
+        this.filterName = filterName;
+        this.file = targetDir.resolve("." + filterName + "-" + hash(inputFiles) + ".manifest");
+        this.completed = new HashSet<>();
+        this.failed = new HashSet<>();
+        if (Files.exists(file)) {
+            // A last line cut short by a crash simply matches no input
+            String content = Files.readString(file, StandardCharsets.UTF_8);
+            for (String line : content.lines().toList()) {
+                if (line.startsWith(FAILED_PREFIX)) {
+                    // The entry is between the prefix and the reason, which has no tabs
+                    int reason = line.lastIndexOf('\t');
+                    this.failed.add(line.substring(FAILED_PREFIX.length(), Math.max(reason, FAILED_PREFIX.length())));
+                } else {
+                    this.completed.add(line);
+                }
+            }
+            this.lastLineCut = !content.isEmpty() && !content.endsWith("\n");
+        }
+    }
+
+    /**
+     * @param inputFiles The input files of a job
+     * @return a hash of the set of input files (in any order)
+     */
+    private static String hash(List<Path> inputFiles) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e); // Every JVM has SHA-256
+        }
+        inputFiles.stream().map(f -> f.toAbsolutePath().normalize().toString()).sorted().forEach(f -> {
+            digest.update(f.getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) '\n');
+        });
+        return HexFormat.of().formatHex(digest.digest(), 0, 8);
+    }
+
+    /**
+     * @param inputFile An input file of the job
+     * @return true if an earlier run of the job completed this input (and its output file still exists)
+     */
+    boolean isCompleted(Path inputFile) {
+        try {
+            return completed.contains(entry(inputFile))
+                    && Files.exists(WorkUnit.outputFileFor(targetDir, filterName, inputFile));
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * @param inputFile An input file of the job
+     * @return true if an earlier run of the job failed on this input, unchanged since, and no run completed it
+     */
+    boolean hasFailed(Path inputFile) {
+        try {
+            return failed.contains(entry(inputFile)) && !isCompleted(inputFile);
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Record that an input is completed, once its output file is on disk
+     *
+     * @param inputFile The input file
+     * @param outputFile The output file
+     * @throws IOException If the output file could not be synced or the manifest could not be written
+     */
+    void markCompleted(Path inputFile, Path outputFile) throws IOException {
+        // The output file must be durable before the manifest says it is there
+        try (FileChannel output = FileChannel.open(outputFile, StandardOpenOption.READ)) {
+            output.force(true);
+        }
+        append(entry(inputFile) + "\n");
+    }
+
+    /**
+     * Record that an input failed
+     *
+     * @param inputFile The input file
+     * @param reason What went wrong
+     * @throws IOException If the manifest could not be written
+     */
+    void markFailed(Path inputFile, String reason) throws IOException {
+        append(FAILED_PREFIX + entry(inputFile) + "\t" + reason.replaceAll("\\s+", " ") + "\n");
+    }
+
+    /**
+     * Append a line to the manifest, durably
+     */
+    private void append(String entry) throws IOException {
+        synchronized (this) {
+            if (channel == null) {
+                channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                        StandardOpenOption.APPEND);
+                if (lastLineCut) {
+                    entry = "\n" + entry;
+                }
+            }
+            ByteBuffer line = ByteBuffer.wrap(entry.getBytes(StandardCharsets.UTF_8));
+            while (line.hasRemaining()) {
+                channel.write(line);
+            }
+            channel.force(false);
+        }
+    }
+
+    /**
+     * Close the manifest once the job is done, and delete it if all the inputs of
+     * the job are completed
+     *
+     * @param numFailed The number of inputs that failed in this run
+     */
+    synchronized void close(int numFailed) {
+        try {
+            if (channel != null) {
+                channel.close();
+                channel = null;
+            }
+            if (numFailed == 0) {
+                Files.deleteIfExists(file);
+            } else {
+                System.err.println("Kept job manifest " + file + ": run the job again to retry the "
+                        + numFailed + " failed image" + (numFailed == 1 ? "" : "s"));
+            }
+        } catch (IOException e) {
+            System.err.println("Could not close job manifest " + file + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Filter out the inputs that earlier runs of the job completed
+     *
+     * @param inputFiles The input files of the job
+     * @return The inputs that remain to be processed
+     */
+    List<Path> pendingInputs(List<Path> inputFiles) {
+        return inputFiles.stream().filter(f -> !isCompleted(f)).toList();
+    }
+
+    private static String entry(Path inputFile) throws IOException {
+        BasicFileAttributes attributes = Files.readAttributes(inputFile, BasicFileAttributes.class);
+        return inputFile.toAbsolutePath() + "\t" + attributes.size() + "\t" + attributes.lastModifiedTime().toMillis();
+    }
+}
@@ -0,0 +1,102 @@
+package ics432.imgapp;
+
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.HashMap;
+
+/**
+ * A scheduler that keeps one bounded queue per job and hands out items
+ * round-robin across the jobs that have pending work, so that a job's
+ * latency does not depend on how much work other jobs have queued.
+ * @param <T> The type of the elements in the scheduler
+ */
+public class JobScheduler<T> {
+    private final int capacityPerJob;
+    // One FIFO queue per job id
+    private final HashMap<Integer, ArrayDeque<T>> queues;
+    // Ids of the jobs that have pending items, in round-robin order
+    private final ArrayDeque<Integer> readyJobs;
+
+    /**
+     * Constructor
+     * @param capacityPerJob The capacity of each job's queue
+     */
+    public JobScheduler(int capacityPerJob) {
+        this.capacityPerJob = capacityPerJob;
+        this.queues = new HashMap<>();
+        this.readyJobs = new ArrayDeque<>();
+    }
+
+    /**
+     * Put an item into a job's queue
+     * @param jobId The id of the job the item belongs to
+     * @param item The item to put into the scheduler
+     * @throws InterruptedException If the thread is interrupted
+     * The producer. Only blocks if this job's own queue is full.
+     */
+    public synchronized void put(int jobId, T item) throws InterruptedException {
+        ArrayDeque<T> queue = queues.computeIfAbsent(jobId, k -> new ArrayDeque<>());
+        while (queue.size() >= capacityPerJob) {
+            wait();
+            queue = queues.computeIfAbsent(jobId, k -> new ArrayDeque<>());
+        }
+        if (queue.isEmpty()) {
+            readyJobs.addLast(jobId); // The job becomes eligible for scheduling
+        }
+        queue.addLast(item);
+        notifyAll();
+    }
+
+    /**
+     * Take the next item, visiting the jobs with pending items in turn
+     * @return The item taken from the scheduler
+     * @throws InterruptedException If the thread is interrupted
+     * The consumer.
+     */
+    public synchronized T take() throws InterruptedException {
+        while (readyJobs.isEmpty()) {
+            wait();
+        }
+        int jobId = readyJobs.pollFirst();
+        ArrayDeque<T> queue = queues.get(jobId);
+        T item = queue.pollFirst();
+        if (queue.isEmpty()) {
+            queues.remove(jobId);
+        } else {
+            readyJobs.addLast(jobId); // Go to the back of the line
+        }
+        notifyAll();
+        return item;
+    }
+
+    /**
+     * Take the items that are pending for a given job, without blocking
+     * @param jobId The id of the job
+     * @param batch The collection to which the items are added
+     * @param maxItems The maximum number of items to take
+     * @return The number of items taken
+     */
+    public synchronized int drainTo(int jobId, Collection<? super T> batch, int maxItems) {
+        ArrayDeque<T> queue = queues.get(jobId);
+        int count = 0;
+        while (queue != null && !queue.isEmpty() && count < maxItems) {
+            batch.add(queue.pollFirst());
+            count++;
+        }
+        if (queue != null && queue.isEmpty()) {
+            queues.remove(jobId);
+            readyJobs.remove(jobId);
+        }
+        if (count > 0) {
+            notifyAll();
+        }
+        return count;
+    }
+
+    /**
+     * @return The capacity of each job's queue
+     */
+    public int getCapacityPerJob() {
+        return capacityPerJob;
+    }
+}
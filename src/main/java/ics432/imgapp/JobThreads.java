@@ -1,20 +1,19 @@
 package ics432.imgapp;
 
-import com.jhlabs.image.InvertFilter;
-import com.jhlabs.image.OilFilter;
-import com.jhlabs.image.SolarizeFilter;
-import javafx.embed.swing.SwingFXUtils;
-import javafx.scene.image.Image;
-
+import javax.imageio.IIOImage;
 import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
 import javax.imageio.stream.ImageOutputStream;
 import java.awt.image.BufferedImage;
-import java.awt.image.BufferedImageOp;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.nio.file.FileSystems;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
 
 import static java.lang.System.currentTimeMillis;
@@ -23,8 +22,8 @@ public class JobThreads {
 
 
     static class ReaderThread implements Runnable {
-        private final BoundedBuffer<WorkUnit> readBuffer;
-        private final BoundedBuffer<WorkUnit> processBuffer;
+        private final JobScheduler<WorkUnit> readBuffer;
+        private final JobScheduler<WorkUnit> processBuffer;
 
 
         /**
@@ -33,7 +32,7 @@ public class JobThreads {
          * @param readBuffer The read buffer
          * @param processBuffer The process buffer
          */
-        public ReaderThread(BoundedBuffer<WorkUnit> readBuffer,BoundedBuffer<WorkUnit> processBuffer) {
+        public ReaderThread(JobScheduler<WorkUnit> readBuffer, JobScheduler<WorkUnit> processBuffer) {
             this.readBuffer = readBuffer;
             this.processBuffer = processBuffer;
         }
@@ -43,7 +42,17 @@ public class JobThreads {
             try {
                 while (true) {
                     WorkUnit workUnit = readBuffer.take();
-                    processBuffer.put(workUnit);
+                    double startReadTime = currentTimeMillis() / 1000.0;
+                    // Decode the image in this reader thread, unless its output is in the cache
+                    try {
+                        if (!workUnit.fetchFromCache()) {
+                            workUnit.loadInputImage();
+                        }
+                    } catch (RuntimeException e) {
+                        workUnit.markFailed("could not read the input image: " + e);
+                    }
+                    workUnit.getTotalProcessAndWriteTime().incrementReadTime(currentTimeMillis()/1000.0 - startReadTime);
+                    processBuffer.put(workUnit.getJobId(), workUnit);
                 }
 
             } catch (InterruptedException e) {
@@ -54,7 +63,7 @@ public class JobThreads {
 
 
     public static class ProcessorThread implements Runnable {
-        private final BoundedBuffer<WorkUnit> processBuffer;
+        private final JobScheduler<WorkUnit> processBuffer;
         private final BoundedBuffer<WorkUnit> writeBuffer;
         private volatile boolean running = true; // Flag to control running state
 
@@ -64,7 +73,7 @@ public class JobThreads {
          * @param processBuffer The process buffer
          * @param writeBuffer The write buffer
          */
-        public ProcessorThread(BoundedBuffer<WorkUnit> processBuffer, BoundedBuffer<WorkUnit> writeBuffer) {
+        public ProcessorThread(JobScheduler<WorkUnit> processBuffer, BoundedBuffer<WorkUnit> writeBuffer) {
             this.processBuffer = processBuffer;
             this.writeBuffer = writeBuffer;
         }
@@ -80,17 +89,45 @@ public class JobThreads {
                     WorkUnit workUnit = processBuffer.take();
                     double startProcessTime = currentTimeMillis() / 1000.0;
                     // Apply filter to the image
-                    if(workUnit.getFilterName().equalsIgnoreCase("DPEdge") ||
-                            workUnit.getFilterName().equalsIgnoreCase("DPFunk1") ||
-                            workUnit.getFilterName().equalsIgnoreCase("DPFunk2"))
+                    if (workUnit.isCached() || workUnit.isFailed()) {
+                        // Nothing to do: the output file is already there, or the reader stage failed
+                        writeBuffer.put(workUnit);
+                        continue;
+                    }
+                    if(workUnit.getChain().isExternal())
                     {
-                        if (workUnit instanceof WorkUnitExternal) {
-                            ((WorkUnitExternal) workUnit).processImage(); // Call process for WorkUnitExternal
+                        List<WorkUnit> chunk = new ArrayList<>();
+                        chunk.add(workUnit);
+                        if (((WorkUnitExternal) workUnit).runsInDocker()) {
+                            // Take the job's other pending units too, so that they are
+                            // processed as one chunk by a single container
+                            processBuffer.drainTo(workUnit.getJobId(), chunk, processBuffer.getCapacityPerJob() - 1);
+                            List<WorkUnit> done = new ArrayList<>();
+                            for (Iterator<WorkUnit> it = chunk.iterator(); it.hasNext(); ) {
+                                WorkUnit unit = it.next();
+                                if (unit.isCached() || unit.isFailed()) {
+                                    it.remove();
+                                    done.add(unit);
+                                }
+                            }
+                            writeBuffer.putAll(done); // Nothing to do for these, pass them to the writer as one batch
                         }
-                        writeBuffer.put(workUnit); // Pass to writer
+                        try {
+                            WorkUnitExternal.processChunk(chunk); // Call process for WorkUnitExternal
+                        } catch (RuntimeException e) {
+                            for (WorkUnit unit : chunk) {
+                                unit.markFailed("external filter " + unit.getFilterName() + " failed: " + e);
+                            }
+                        }
+                        writeBuffer.putAll(chunk); // Pass to writer, as one batch
                     }
                     else{
-                        workUnit.setOutputImage(applyFilter(workUnit.getInputImage(), workUnit.getFilterName()));
+                        try {
+                            workUnit.setOutputImage(applyFilter(workUnit.getInputImage(), workUnit.getChain()));
+                        } catch (IOException | RuntimeException e) {
+                            // e.g., an input image that the filter cannot handle: only this work unit fails
+                            workUnit.markFailed("filter " + workUnit.getFilterName() + " failed: " + e);
+                        }
 
                         writeBuffer.put(workUnit); // Pass to writer
 
@@ -104,48 +141,26 @@ public class JobThreads {
         }
 
         /**
-         * Apply a filter to an image
+         * Apply a filter, or a chain of filters, to an image
          *
          * @param image The image to filter
-         * @param filterName The name of the filter
+         * @param chain The filter (or chain of filters, see FilterChain)
          * @return The filtered image
+         * @throws IOException If an external filter of the chain failed
          */
-        private BufferedImage applyFilter(Image image, String filterName) {
-            BufferedImageOp filter = createFilter(filterName);
-            BufferedImage result = filter.filter(SwingFXUtils.fromFXImage(image, null), null);
-            return result;
-        }
-
-        /**
-         * Create a filter based on the filter name
-         *
-         * @param filterName The name of the filter
-         * @return The filter
-         */
-        private BufferedImageOp createFilter(String filterName) {
-            switch (filterName) {
-                case "Invert":
-                    return new InvertFilter();
-                case "Solarize":
-                    return new SolarizeFilter();
-                case "Oil4":
-                    OilFilter oil4Filter = new OilFilter();
-                    oil4Filter.setRange(4);
-                    return oil4Filter;
-                case "Median":
-                    return new MedianFilter();
-                case "DPMedian":
-                    return new DPMedianFilter();
-
-                default:
-                    throw new RuntimeException("Unknown filter " + filterName);
-            }
+        private BufferedImage applyFilter(BufferedImage image, FilterChain chain) throws IOException {
+            return chain.apply(image);
         }
 
     }
 
     public static class WriterThread implements Runnable {
+        // Maximum number of work units a writer takes from the write buffer at once
+        private static final int WRITE_BATCH_SIZE = 4;
         private final BoundedBuffer<WorkUnit> writeBuffer;
+        // Each writer thread keeps its own JPEG encoder, which is reused for every image
+        private ImageWriter imageWriter;
+        private ImageWriteParam writeParam;
 
         /**
          * Constructor
@@ -159,50 +174,86 @@ public class JobThreads {
 
         @Override
         public void run() {
+            this.imageWriter = ImageIO.getImageWritersByFormatName("jpg").next();
+            this.writeParam = this.imageWriter.getDefaultWriteParam();
+            List<WorkUnit> batch = new ArrayList<>(WRITE_BATCH_SIZE);
             try {
                 while (true) {
-                    WorkUnit workUnit = writeBuffer.take();
-                    if(workUnit.getFilterName().equalsIgnoreCase("DPEdge") ||
-                            workUnit.getFilterName().equalsIgnoreCase("DPFunk1") ||
-                            workUnit.getFilterName().equalsIgnoreCase("DPFunk2"))
-                    {
-                        String outputPath = workUnit.getTargetDir() + FileSystems.getDefault().getSeparator() + workUnit.getFilterName() + "_" + workUnit.getInputFile().getFileName();
-                        Path outputFilePath = Path.of(outputPath);
-                        workUnit.getNumberOfImagesProcessed().increment();
-                        workUnit.getFlwvp().addFiles(List.of(outputFilePath));
-                        workUnit.getProgressBar().setProgress(( workUnit.getNumberOfImagesProcessed().getNumImageProcessed() / (double) workUnit.getTotalImagesInJob()));
-                        ICS432ImgApp.statistics.newlyCompletedImageThread();
-                    }else{
-                        // Process the image and track the outcome
-                        ImgTransformOutcome outcome = writeImageToDisk(
-                                workUnit.getOutputImage(),
-                                workUnit.getInputFile().getFileName().toString(),
-                                workUnit.getFilterName(),
-                                workUnit.getTargetDir().toString(),
-                                workUnit.getFlwvp(),
-                                workUnit.getTotalProcessAndWriteTime());
-
-                        // Display or log the outcome (optional)
-                        if (!outcome.success) {
-                            System.err.println("Failed to write image: " + outcome.inputFile);
-                            outcome.error.printStackTrace();
-                        } else {
-                            // ICS432ImgApp.statistics.newlyCompletedImageThread();
-                            workUnit.getNumberOfImagesProcessed().increment();
-                            workUnit.getProgressBar().setProgress(( workUnit.getNumberOfImagesProcessed().getNumImageProcessed() / (double) workUnit.getTotalImagesInJob()));
-                            ICS432ImgApp.statistics.newlyCompletedImageThread();
-                            System.out.println("Successfully wrote image: " + outcome.outputFile);
-                        }
-
+                    batch.clear();
+                    writeBuffer.drainTo(batch, WRITE_BATCH_SIZE);
+                    for (WorkUnit workUnit : batch) {
+                        writeWorkUnit(workUnit);
                     }
+                }
 
-                    workUnit.cleanUp(); // Free resources
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                this.imageWriter.dispose();
+            }
+        }
 
+        /**
+         * Write the output of a work unit and update its job's progress. A work unit
+         * on which a stage failed (this one included) is counted as done, as failed,
+         * so that the job still completes.
+         *
+         * @param workUnit The work unit
+         */
+        private void writeWorkUnit(WorkUnit workUnit) {
+            try {
+                if (!workUnit.isFailed()) {
+                    writeOutput(workUnit);
+                }
+            } catch (RuntimeException e) {
+                workUnit.markFailed("could not write the output image: " + e);
+            }
+
+            if (workUnit.isFailed()) {
+                System.err.println("Failed to process image: " + workUnit.getInputFile() + ": " + workUnit.getFailure());
+                workUnit.recordFailure();
+                workUnit.getNumberOfImagesProcessed().incrementFailed(workUnit.getInputFile(), workUnit.getFailure());
+            } else {
+                workUnit.storeInCache();
+                workUnit.markCompleted();
+                workUnit.getNumberOfImagesProcessed().increment();
+                workUnit.getJobListener().imageWritten(workUnit.getOutputFile(), workUnit.getNumberOfImagesProcessed().getNumImageDone(), workUnit.getTotalImagesInJob());
+                Statistics.INSTANCE.newlyCompletedImageThread();
+            }
+
+            workUnit.cleanUp(); // Free resources
+        }
 
+        /**
+         * Write the output image of a work unit, unless it is already in the target directory
+         *
+         * @param workUnit The work unit, which is marked as failed if its output image could not be written
+         */
+        private void writeOutput(WorkUnit workUnit) {
+            // External filter programs write the output file themselves (filters called
+            // in-process through their shared library produce an output image instead),
+            // and so does the result cache on a hit
+            if(workUnit.isCached() || (workUnit.getChain().isExternal() && workUnit.getOutputImage() == null))
+            {
+                if (!Files.exists(workUnit.getOutputFile())) {
+                    workUnit.markFailed("the filter program did not write " + workUnit.getOutputFile());
+                }
+            }else{
+                // Process the image and track the outcome
+                ImgTransformOutcome outcome = writeImageToDisk(
+                        workUnit.getOutputImage(),
+                        workUnit.getInputFile().getFileName().toString(),
+                        workUnit.getFilterName(),
+                        workUnit.getTargetDir().toString(),
+                        workUnit.getTotalProcessAndWriteTime());
+
+                // Display or log the outcome (optional)
+                if (!outcome.success) {
+                    workUnit.markFailed("could not write the output image: " + outcome.error);
+                } else {
+                    System.out.println("Successfully wrote image: " + outcome.outputFile);
                 }
 
-            } catch (InterruptedException e) {
-                Thread.currentThread().interrupt();
             }
         }
 
@@ -213,19 +264,27 @@ public class JobThreads {
          * @param fileName The name of the file to write
          * @param filterName The name of the filter
          * @param targetDir The target directory
-         * @param flwvp The file list with viewport
          * @param totalProcessAndWriteTime The total process and write time
          * @return The outcome of the write operation
          */
-        private ImgTransformOutcome writeImageToDisk(BufferedImage image, String fileName, String filterName, String targetDir, FileListWithViewPort flwvp, JobWindow.TotalProcessAndWriteTime totalProcessAndWriteTime) {
+        private ImgTransformOutcome writeImageToDisk(BufferedImage image, String fileName, String filterName, String targetDir, TotalProcessAndWriteTime totalProcessAndWriteTime) {
             double writeStartTime = currentTimeMillis() / 1000.0;
             String outputPath = targetDir + FileSystems.getDefault().getSeparator() + filterName + "_" + fileName;
             Path outputFilePath = Path.of(outputPath);
 
+            try {
+                // The output file may be a hard link to a ResultCache entry (from an earlier run,
+                // even with the cache turned off now), which must not be overwritten in place
+                Files.deleteIfExists(outputFilePath);
+            } catch (IOException e) {
+                return new ImgTransformOutcome(false, Path.of(fileName), null, e);
+            }
             try (OutputStream os = new FileOutputStream(outputPath);
                  ImageOutputStream outputStream = ImageIO.createImageOutputStream(os)) {
-                     ImageIO.write(image, "jpg", outputStream);
-                     flwvp.addFiles(List.of(outputFilePath));
+                     // Reuse this thread's encoder instead of looking up a new one per image
+                     imageWriter.setOutput(outputStream);
+                     imageWriter.write(null, new IIOImage(image, null, null), writeParam);
+                     imageWriter.reset();
                      ImgTransformOutcome result = new ImgTransformOutcome(true, Path.of(fileName), outputFilePath, null);
                      //Each Job has a total process and write time object
                      totalProcessAndWriteTime.incrementWriteTime(currentTimeMillis()/1000.0 - writeStartTime);
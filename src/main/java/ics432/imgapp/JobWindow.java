@@ -16,8 +16,10 @@ import javafx.stage.Stage;
 import javafx.stage.WindowEvent;
 
 import java.io.File;
+import java.io.IOException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.List;
 
 
@@ -35,19 +37,23 @@ class JobWindow extends Stage {
     private final Button runButton;
     private final Button closeButton;
     private final ComboBox<String> imgTransformList;
+    private final Button addToChainButton;
+    private final Button clearChainButton;
+    private final Label chainLabel;
+    // The filters chained so far (see FilterChain), or empty to apply only the selected filter
+    private final List<String> filterChain = new ArrayList<>();
     private final Label timeLabel;
     private final Button cancelButton;
 
     private Thread jobThread;
     private Job job;
     private final ProgressBar progressBar;
-    private final BoundedBuffer<WorkUnit> readBuffer;
+    private final JobScheduler<WorkUnit> readBuffer;
+    private final int id;
 
     private int numberOfImages = 0;
     private double finalTotalJobStartTime = 0.0;
     private double finalTotalJobTime = 0.0;
-    private double readStartTime = 0.0;
-    private double totalReadTime = 0.0;
     private double totalInputSize =0.0;
 
 
@@ -60,9 +66,10 @@ class JobWindow extends Stage {
      * @param Y                    The vertical position of the job window
      * @param id                   The id of the job
      * @param inputFiles           The batch of input image files
+     * @param readBuffer           The scheduler into which work units are put
      */
 
-    JobWindow(int windowWidth, int windowHeight, double X, double Y, int id, List<Path> inputFiles, BoundedBuffer<WorkUnit> readBuffer) {
+    JobWindow(int windowWidth, int windowHeight, double X, double Y, int id, List<Path> inputFiles, JobScheduler<WorkUnit> readBuffer) {
 
         // The  preferred height of buttons
         double buttonPreferredHeight = 27.0;
@@ -71,6 +78,7 @@ class JobWindow extends Stage {
         targetDir = Paths.get(inputFiles.getFirst().getParent().toString()); // Same dir as input images
         this.inputFiles = inputFiles;
         this.readBuffer = readBuffer;
+        this.id = id;
 
 
         // Set up the window
@@ -109,18 +117,18 @@ class JobWindow extends Stage {
         //  Create the pull-down list of image transforms
         this.imgTransformList = new ComboBox<>();
         this.imgTransformList.setId("imgTransformList");  // For TestFX
-        this.imgTransformList.setItems(FXCollections.observableArrayList(
-                "Invert",
-                "Solarize",
-                "Oil4",
-                "Median",
-                "DPMedian",
-                "DPEdge",
-                "DPFunk1",
-                "DPFunk2"
-        ));
+        this.imgTransformList.setItems(FXCollections.observableArrayList(ICS432ImgApp.filterNames));
         this.imgTransformList.getSelectionModel().selectFirst(); //Chooses first imgTransform as default
 
+        // Create the buttons to build a chain of filters, applied in one pass
+        this.addToChainButton = new Button("Add to chain");
+        this.addToChainButton.setId("addToChainButton");
+        this.addToChainButton.setPrefHeight(buttonPreferredHeight);
+        this.clearChainButton = new Button("Clear chain");
+        this.clearChainButton.setId("clearChainButton");
+        this.clearChainButton.setPrefHeight(buttonPreferredHeight);
+        this.chainLabel = new Label("");
+
         // Create a "Run" button
         this.runButton = new Button("Run job (on " + inputFiles.size() + " image" + (inputFiles.size() == 1 ? "" : "s") + ")");
         this.runButton.setId("runJobButton");
@@ -153,10 +161,30 @@ class JobWindow extends Stage {
             this.setTargetDir(Paths.get(dir.getAbsolutePath()));
         });
 
+        this.addToChainButton.setOnAction(e -> {
+            this.filterChain.add(imgTransformList.getSelectionModel().getSelectedItem());
+            this.chainLabel.setText("Chain: " + FilterChain.nameOf(this.filterChain));
+        });
+
+        this.clearChainButton.setOnAction(e -> {
+            this.filterChain.clear();
+            this.chainLabel.setText("");
+        });
+
         this.runButton.setOnAction(e -> {
+            String filterName = this.filterChain.isEmpty()
+                    ? imgTransformList.getSelectionModel().getSelectedItem()
+                    : FilterChain.nameOf(this.filterChain);
+            FilterChain chain;
+            try {
+                chain = FilterChain.of(filterName);
+            } catch (IllegalArgumentException ex) {
+                this.timeLabel.setText("Cannot run " + filterName + ": " + ex.getMessage());
+                return;
+            }
             this.cancelButton.setDisable(false);
             this.timeLabel.setText("Running job...");
-            executeJob(imgTransformList.getSelectionModel().getSelectedItem());
+            executeJob(chain);
         });
 
         this.closeButton.setOnAction(f -> this.close());
@@ -190,7 +218,7 @@ class JobWindow extends Stage {
         HBox row2 = new HBox(10);  // Horizontal box with spacing of 10 between items
         row2.setAlignment(Pos.CENTER_LEFT);  // Align to the left
         // Add imgTransformList and progressBar to the HBox
-        row2.getChildren().addAll(transformLabel, imgTransformList, progressBar);
+        row2.getChildren().addAll(transformLabel, imgTransformList, addToChainButton, clearChainButton, chainLabel, progressBar);
         // Add the HBox to the main layout (VBox)
         layout.getChildren().add(row2);  // Add the HBox to the main VBox layout
 
@@ -234,57 +262,13 @@ class JobWindow extends Stage {
         }
     }
 
-    public class NumProcessCounter {
-        private int numImageProcessed;
-
-        public NumProcessCounter() {
-            this.numImageProcessed = 0;
-        }
-
-        // Synchronized increment to ensure thread safety
-        public synchronized void increment() {
-            this.numImageProcessed++;
-            notifyAll(); // Notify any waiting threads
-        }
-
-        public int getNumImageProcessed() {
-            return numImageProcessed;
-        }
-    }
-
-    public class TotalProcessAndWriteTime {
-        private double processTime;
-        private double writeTime;
-
-        public TotalProcessAndWriteTime() {
-            this.processTime = 0.0;
-            this.writeTime = 0.0;
-        }
-
-        // Synchronized increment to ensure thread safety
-        public synchronized void incrementProcessTime(double time) {
-            this.processTime += time;
-        }
-
-        public synchronized void incrementWriteTime(double time) {
-            this.writeTime += time;
-        }
-
-        public double getProcessTime() {
-            return processTime;
-        }
-
-        public double getWriteTime() {
-            return writeTime;
-        }
-    }
-
     /**
      * A method to execute the job
      *
-     * @param filterName The name of the filter to apply to input images
+     * @param chain The filter (or chain of filters) to apply to input images
      */
-    private void executeJob(String filterName) {
+    private void executeJob(FilterChain chain) {
+        String filterName = chain.getName();
         // Clear the display
         numberOfImages = flwvp.getNumFiles();
         flwvp.clear();
@@ -302,57 +286,86 @@ class JobWindow extends Stage {
         this.changeDirButton.setDisable(true);
         this.runButton.setDisable(true);
         this.imgTransformList.setDisable(true);
+        this.addToChainButton.setDisable(true);
+        this.clearChainButton.setDisable(true);
 
         // Create a thread to run the job
         jobThread = new Thread(() -> {
             finalTotalJobStartTime = System.currentTimeMillis()/1000.0;
 
+            // Skip the inputs that an earlier, unfinished (or failed) run of this job completed
+            JobManifest jobManifest;
+            List<Path> pendingInputFiles;
+            try {
+                jobManifest = new JobManifest(targetDir, filterName, inputFiles);
+                pendingInputFiles = jobManifest.pendingInputs(inputFiles);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+            numberOfImages = pendingInputFiles.size();
+            if (numberOfImages < inputFiles.size()) {
+                System.err.println("Resuming job: " + (inputFiles.size() - numberOfImages) + " images already done");
+                List<Path> doneOutputFiles = inputFiles.stream()
+                        .filter(f -> !pendingInputFiles.contains(f))
+                        .map(f -> WorkUnit.outputFileFor(targetDir, filterName, f))
+                        .toList();
+                Platform.runLater(() -> flwvp.addFiles(doneOutputFiles));
+            }
+            long numRetried = pendingInputFiles.stream().filter(jobManifest::hasFailed).count();
+            if (numRetried > 0) {
+                System.err.println("Retrying " + numRetried + " images that failed in an earlier run");
+            }
+
             NumProcessCounter numProcessCounter = new NumProcessCounter();
             TotalProcessAndWriteTime totalProcessAndWriteTime = new TotalProcessAndWriteTime();
+            // Show each output image and the progress as the writer stage writes them
+            JobListener jobListener = (outputFile, numImagesProcessed, totalImagesInJob) -> {
+                flwvp.addFiles(List.of(outputFile));
+                progressBar.setProgress(numImagesProcessed / (double) totalImagesInJob);
+            };
             try{
-                readStartTime = System.currentTimeMillis()/1000.0;
                 System.err.println(numberOfImages);
                 totalInputSize = 0.0;
-                for (Path path : inputFiles) {
-                    if (filterName.equalsIgnoreCase("DPEdge") ||
-                            filterName.equalsIgnoreCase("DPFunk1") ||
-                            filterName.equalsIgnoreCase("DPFunk2")) {
+                for (Path path : pendingInputFiles) {
+                    if (chain.isExternal()) {
                         WorkUnit workUnit = new WorkUnitExternal(
+                                id,
                                 path,
                                 targetDir,
-                                filterName,
-                                flwvp,
-                                progressBar,
+                                chain,
+                                jobListener,
                                 numProcessCounter,
                                 numberOfImages,
-                                totalProcessAndWriteTime);
-                        readBuffer.put(workUnit);
+                                totalProcessAndWriteTime,
+                                jobManifest);
+                        readBuffer.put(id, workUnit);
                         totalInputSize += (path.toFile().length()) / 1024.0 / 1024.0;
                     }else{
                         WorkUnit workUnit = new WorkUnit(
+                                id,
                                 path,
                                 targetDir,
-                                filterName,
-                                flwvp,
-                                progressBar,
+                                chain,
+                                jobListener,
                                 numProcessCounter,
                                 numberOfImages,
-                                totalProcessAndWriteTime);
-                        readBuffer.put(workUnit);
+                                totalProcessAndWriteTime,
+                                jobManifest);
+                        readBuffer.put(id, workUnit);
                         totalInputSize += (path.toFile().length()) / 1024.0 / 1024.0;
 
                     }
                 }
-                totalReadTime = System.currentTimeMillis()/1000.0 - readStartTime;
-
                 // Wait until all images are processed
                 synchronized (numProcessCounter) {
-                    while (numProcessCounter.getNumImageProcessed() != numberOfImages) {
-                        System.err.println("num image process: " + numProcessCounter.getNumImageProcessed());
+                    while (numProcessCounter.getNumImageDone() < numberOfImages) {
+                        System.err.println("num image process: " + numProcessCounter.getNumImageDone());
                         numProcessCounter.wait(); // Wait until notified
                     }
                 }
                 finalTotalJobTime = System.currentTimeMillis()/1000.0 - finalTotalJobStartTime;
+                // Unless some images failed, the job is complete and there is nothing left to resume
+                jobManifest.close(numProcessCounter.getNumImageFailed());
 
                 System.err.println("image done: " + numProcessCounter.getNumImageProcessed());
             } catch (InterruptedException e) {
@@ -363,19 +376,23 @@ class JobWindow extends Stage {
                     timeLabel.setText(String.format(
                             "Job took %.2f seconds to run.  Read: %.2f seconds  Write: %.2f seconds  Process: %.2f seconds Input size: %.2f MB",
                             finalTotalJobTime,
-                            totalReadTime,
+                            totalProcessAndWriteTime.getReadTime(),
                             totalProcessAndWriteTime.getWriteTime(),
                             totalProcessAndWriteTime.getProcessTime(),
-                            totalInputSize));
+                            totalInputSize)
+                            + (numProcessCounter.getNumImageFailed() == 0 ? ""
+                                    : String.format("  Failed: %d images (see the console)", numProcessCounter.getNumImageFailed())));
 
                     // Increment statistics after successful job
-                    ICS432ImgApp.statistics.newlyCompletedJob();
-                    ICS432ImgApp.statistics.newlyProcessedJobThread( filterName, totalInputSize, finalTotalJobTime);
+                    Statistics.INSTANCE.newlyCompletedJob();
+                    Statistics.INSTANCE.newlyProcessedJobThread( filterName, totalInputSize, finalTotalJobTime);
 
                     this.closeButton.setDisable(false);
                     this.changeDirButton.setDisable(false);
                     this.runButton.setDisable(false);
                     this.imgTransformList.setDisable(false);
+                    this.addToChainButton.setDisable(false);
+                    this.clearChainButton.setDisable(false);
                     this.cancelButton.setDisable(true);
                     progressBar.setVisible(false);
                 });
@@ -3,6 +3,7 @@ package ics432.imgapp;
 import javafx.event.Event;
 import javafx.scene.Scene;
 import javafx.scene.control.Button;
+import javafx.scene.control.CheckBox;
 import javafx.scene.control.Label;
 import javafx.scene.layout.HBox;
 import javafx.scene.layout.VBox;
@@ -33,7 +34,10 @@ class MainWindow {
     private final Stage primaryStage;
     private final Button quitButton;
     private Slider numProcessorSlider;
-    private static Slider dataParallelThreadSlider;
+    private Slider numWriterSlider;
+    private Slider dataParallelThreadSlider;
+    private CheckBox javaFXDecoderCheckBox;
+    private CheckBox resultCacheCheckBox;
     private int pendingJobCount = 0;
     private final FileListWithViewPort fileListWithViewPort;
     private int jobID = 0;
@@ -42,9 +46,14 @@ class MainWindow {
     private final List<Thread> processorThreads = new ArrayList<>();
     // Atomic integer to manage the number of active processor threads
     private final AtomicInteger activeProcessorThreads = new AtomicInteger(0);
-    private static final BoundedBuffer<WorkUnit> readBuffer = new BoundedBuffer<>(16); // Adjust size as needed
-    private static final BoundedBuffer<WorkUnit> processBuffer = new BoundedBuffer<>(16); // Adjust size as needed
-    private static final BoundedBuffer<WorkUnit> writeBuffer = new BoundedBuffer<>(16); // Adjust size as needed
+    // List to store writer threads
+    private final List<Thread> writerThreads = new ArrayList<>();
+    // Per-job queues, served round-robin so that a large job does not starve smaller ones
+    private static final JobScheduler<WorkUnit> readBuffer = new JobScheduler<>(16); // Adjust size as needed
+    private static final JobScheduler<WorkUnit> processBuffer = new JobScheduler<>(16); // Adjust size as needed
+    private static final BoundedBuffer<WorkUnit> writeBuffer = new BlockingBoundedBuffer<>(16); // Adjust size as needed
+    // Number of reader threads that decode input images in parallel
+    private static final int NUM_READER_THREADS = Runtime.getRuntime().availableProcessors();
 
 
 
@@ -91,6 +100,16 @@ class MainWindow {
         numProcessorSlider.setSnapToTicks(true);
         Label sliderValue = new Label("Number of Processors: " + (int) numProcessorSlider.getValue());
 
+        numWriterSlider = new Slider(1, Runtime.getRuntime().availableProcessors(), 1);
+        numWriterSlider.setShowTickLabels(true);
+        numWriterSlider.setShowTickMarks(true);
+        numWriterSlider.setMajorTickUnit(1);
+        numWriterSlider.setMinorTickCount(0);
+        numWriterSlider.setBlockIncrement(1); // Move in increments of 1
+        numWriterSlider.setPrefWidth(300); // Make slider visually longer
+        numWriterSlider.setSnapToTicks(true);
+        Label writerSliderValue = new Label("Number of Writers: " + (int) numWriterSlider.getValue());
+
         dataParallelThreadSlider = new Slider(1, Runtime.getRuntime().availableProcessors(), 1);
         dataParallelThreadSlider.setShowTickLabels(true);
         dataParallelThreadSlider.setShowTickMarks(true);
@@ -102,6 +121,18 @@ class MainWindow {
         Label dataParallelSliderValue = new Label("Number of Processors: " + (int) numProcessorSlider.getValue());
 
 
+        // Lets the user go back to the JavaFX decode path, to compare decode speeds in the statistics window
+        javaFXDecoderCheckBox = new CheckBox("Decode with JavaFX");
+        javaFXDecoderCheckBox.setSelected(false);
+        javaFXDecoderCheckBox.selectedProperty().addListener((observable, oldValue, newValue) ->
+                PipelineConfig.setUseJavaFXDecoder(newValue));
+
+        // Lets the user turn off the result cache, e.g., to measure filter speeds
+        resultCacheCheckBox = new CheckBox("Use result cache");
+        resultCacheCheckBox.setSelected(PipelineConfig.useResultCache());
+        resultCacheCheckBox.selectedProperty().addListener((observable, oldValue, newValue) ->
+                PipelineConfig.setUseResultCache(newValue));
+
         this.fileListWithViewPort = new FileListWithViewPort(
                 windowWidth * 0.98,
                 windowHeight - 3 * buttonPreferredHeight - 3 * 5,
@@ -123,7 +154,10 @@ class MainWindow {
         createJobButton.setOnAction(e -> {
             this.quitButton.setDisable(true);
             this.numProcessorSlider.setDisable(true);
+            this.numWriterSlider.setDisable(true);
             this.dataParallelThreadSlider.setDisable(true);
+            javaFXDecoderCheckBox.setDisable(true);
+            resultCacheCheckBox.setDisable(true);
             this.pendingJobCount += 1;
             this.jobID += 1;
 
@@ -140,7 +174,10 @@ class MainWindow {
                 if (this.pendingJobCount == 0) {
                     this.quitButton.setDisable(false);
                     this.numProcessorSlider.setDisable(false);
+                    this.numWriterSlider.setDisable(false);
                     this.dataParallelThreadSlider.setDisable(false);
+                    javaFXDecoderCheckBox.setDisable(false);
+                    resultCacheCheckBox.setDisable(false);
                 }
             });
         });
@@ -149,7 +186,7 @@ class MainWindow {
 
             viewStatsButton.setDisable(true);
             this.statisticsWindow = new StatisticsWindow(
-                    350, 250,
+                    350, 300,
                     this.primaryStage.getX() + 100 + this.pendingJobCount * 10,
                     this.primaryStage.getY() + 30 + this.pendingJobCount * 10);
 
@@ -163,36 +200,44 @@ class MainWindow {
             updateProcessorThreads(newValue.intValue());
         });
 
+        numWriterSlider.valueProperty().addListener((observable, oldValue, newValue) -> {
+            int roundedValue = (int) Math.round(newValue.doubleValue()); // Round to nearest multiple of 1
+            numWriterSlider.setValue(roundedValue);
+            writerSliderValue.setText("Number of Writers: " + newValue.intValue());
+            updateWriterThreads(newValue.intValue());
+        });
+
         dataParallelThreadSlider.valueProperty().addListener((observable, oldValue, newValue) -> {
             int roundedValue = (int) Math.round(newValue.doubleValue()); // Round to nearest multiple of 1
             dataParallelThreadSlider.setValue(roundedValue);
             dataParallelSliderValue.setText("Number of Data-Parallel Thread: " + newValue.intValue());
+            PipelineConfig.setDPThreadCount(roundedValue);
         });
 
         // Set default slider value to 1
         numProcessorSlider.setValue(1);
+        numWriterSlider.setValue(1);
         dataParallelThreadSlider.setValue(1);
 
         // Display the default value
         sliderValue.setText("Number of Processor: 1");
+        writerSliderValue.setText("Number of Writers: 1");
         dataParallelSliderValue.setText("Number of Data-Parallel Thread: 1");
 
         // Initialize processor threads based on the initial slider value
         updateProcessorThreads(1);
 
 
-        JobThreads.ReaderThread readerThread = new JobThreads.ReaderThread(readBuffer, processBuffer);
-        JobThreads.WriterThread writerThread = new JobThreads.WriterThread(writeBuffer);
-
-        // Create threads using these instances
-        Thread reader = new Thread(readerThread);
-        Thread writer = new Thread(writerThread);
+        // Start the pool of reader threads that decode images
+        for (int i = 0; i < NUM_READER_THREADS; i++) {
+            JobThreads.ReaderThread readerThread = new JobThreads.ReaderThread(readBuffer, processBuffer);
+            Thread reader = new Thread(readerThread);
+            reader.setDaemon(true);
+            reader.start();
+        }
 
-        reader.setDaemon(true);
-        writer.setDaemon(true);
-        // Start threads
-        reader.start();
-        writer.start();
+        // Initialize writer threads based on the initial slider value
+        updateWriterThreads(1);
 
         //Construct the layout
         VBox layout = new VBox(5);
@@ -205,7 +250,10 @@ class MainWindow {
         row.getChildren().add(quitButton);
         row.getChildren().add(viewStatsButton);
         row.getChildren().addAll(numProcessorSlider, sliderValue);
+        row.getChildren().addAll(numWriterSlider, writerSliderValue);
         row.getChildren().addAll(dataParallelThreadSlider, dataParallelSliderValue);
+        row.getChildren().add(javaFXDecoderCheckBox);
+        row.getChildren().add(resultCacheCheckBox);
         layout.getChildren().add(row);
 
         Scene scene = new Scene(layout, windowWidth, windowHeight);
@@ -283,8 +331,29 @@ class MainWindow {
         }
     }
 
-    public static int getDPThreadCount() {
-        return (int) dataParallelThreadSlider.getValue();
+    public void updateWriterThreads(int newThreadCount) {
+        int currentThreadCount = writerThreads.size();
+
+        // Increase threads if the new count is higher
+        if (newThreadCount > currentThreadCount) {
+            for (int i = currentThreadCount; i < newThreadCount; i++) {
+                JobThreads.WriterThread writerRunnable = new JobThreads.WriterThread(writeBuffer);
+                Thread writerThread = new Thread(writerRunnable);
+                writerThread.setDaemon(true);
+                writerThread.start();
+
+                writerThreads.add(writerThread);
+            }
+            System.err.println("Number of Writers: " + writerThreads.size());
+        }
+        // Decrease threads if the new count is lower
+        else if (newThreadCount < currentThreadCount) {
+            for (int i = currentThreadCount; i > newThreadCount; i--) {
+                Thread threadToStop = writerThreads.remove(writerThreads.size() - 1);
+                threadToStop.interrupt();
+            }
+            System.err.println("Number of Writers: " + writerThreads.size());
+        }
     }
 
 
@@ -0,0 +1,214 @@
+package ics432.imgapp;
+
+import java.util.Arrays;
+
+/**
+ * An allocation-free median engine that works directly on int[] rasters
+ * of packed RGB pixels (one int per pixel, row-major).
+ * <p>
+ * The median of a channel is computed over the (2*radius+1)x(2*radius+1)
+ * neighborhood of a pixel, clipped at the image borders, and is the element
+ * at index count/2 once the neighbors are sorted. Channel values are ordered
+ * as signed bytes, as in the original MedianFilter implementation (which sorted
+ * a list of Byte objects), so that the output is identical. The output pixels
+ * only have their RGB bits set.
+ * <p>
+ * A 3x3 neighborhood uses a sorting network for interior pixels, on several
+ * pixels at once if the Vector API is available (see VectorKernels). Larger
+ * neighborhoods use a sliding histogram (Huang's algorithm) per row, with
+ * a two-level histogram so that finding the median takes at most 32 steps.
+ */
+final class MedianKernel {
+
+    // XOR-ing a channel value with this maps the signed byte order onto the int order
+    private static final int SIGN_FLIP = 0x80;
+    private static final int COARSE_SHIFT = 4;
+    private static final int NUM_COARSE_BINS = 256 >> COARSE_SHIFT;
+
+    private MedianKernel() {
+    }
+
+    /**
+     * Compute the median-filtered value of a band of rows
+     *
+     * @param src The source pixels
+     * @param dst The destination pixels (same dimensions as src)
+     * @param width The image width
+     * @param height The image height
+     * @param radius The neighborhood radius (1 for 3x3)
+     * @param startRow The first row to compute
+     * @param endRow One past the last row to compute
+     */
+    static void median(int[] src, int[] dst, int width, int height, int radius, int startRow, int endRow) {
+        if (radius == 1) {
+            median3x3(src, dst, width, height, startRow, endRow);
+        } else {
+            medianHistogram(src, dst, width, height, radius, startRow, endRow);
+        }
+    }
+
+    /**
+     * 3x3 median of a band of rows
+     */
+    private static void median3x3(int[] src, int[] dst, int width, int height, int startRow, int endRow) {
+        int[] scratch = new int[9];
+        boolean simd = PipelineConfig.useSimd();
+        for (int y = startRow; y < endRow; y++) {
+            boolean borderRow = (y == 0) || (y == height - 1);
+            int row = y * width;
+            // The SIMD kernel computes the interior pixels it can, and the loop below the rest
+            int simdEnd = (simd && !borderRow && width > 2) ? VectorKernels.median3x3Row(src, dst, width, y) : 1;
+            for (int x = 0; x < width; x++) {
+                if (borderRow || x == 0 || x == width - 1) {
+                    dst[row + x] = medianClipped(src, width, height, x, y, scratch);
+                    continue;
+                }
+                if (x < simdEnd) {
+                    continue;
+                }
+                int out = 0;
+                for (int shift = 16; shift >= 0; shift -= 8) {
+                    int up = row - width + x;
+                    int mid = row + x;
+                    int down = row + width + x;
+                    int m = median9(
+                            key(src[up - 1], shift), key(src[up], shift), key(src[up + 1], shift),
+                            key(src[mid - 1], shift), key(src[mid], shift), key(src[mid + 1], shift),
+                            key(src[down - 1], shift), key(src[down], shift), key(src[down + 1], shift));
+                    out |= (m ^ SIGN_FLIP) << shift;
+                }
+                dst[row + x] = out;
+            }
+        }
+    }
+
+    /**
+     * 3x3 median of a pixel whose neighborhood is clipped by the image borders
+     */
+    private static int medianClipped(int[] src, int width, int height, int x, int y, int[] scratch) {
+        int out = 0;
+        for (int shift = 16; shift >= 0; shift -= 8) {
+            int count = 0;
+            for (int ny = Math.max(0, y - 1); ny <= Math.min(height - 1, y + 1); ny++) {
+                for (int nx = Math.max(0, x - 1); nx <= Math.min(width - 1, x + 1); nx++) {
+                    // Insertion sort as values come in
+                    int v = key(src[ny * width + nx], shift);
+                    int i = count++;
+                    while (i > 0 && scratch[i - 1] > v) {
+                        scratch[i] = scratch[i - 1];
+                        i--;
+                    }
+                    scratch[i] = v;
+                }
+            }
+            out |= (scratch[count / 2] ^ SIGN_FLIP) << shift;
+        }
+        return out;
+    }
+
+    /**
+     * Median of 9 values with a 19-comparator sorting network
+     */
+    private static int median9(int p0, int p1, int p2, int p3, int p4, int p5, int p6, int p7, int p8) {
+        int t;
+        t = Math.min(p1, p2); p2 = Math.max(p1, p2); p1 = t;
+        t = Math.min(p4, p5); p5 = Math.max(p4, p5); p4 = t;
+        t = Math.min(p7, p8); p8 = Math.max(p7, p8); p7 = t;
+        t = Math.min(p0, p1); p1 = Math.max(p0, p1); p0 = t;
+        t = Math.min(p3, p4); p4 = Math.max(p3, p4); p3 = t;
+        t = Math.min(p6, p7); p7 = Math.max(p6, p7); p6 = t;
+        t = Math.min(p1, p2); p2 = Math.max(p1, p2); p1 = t;
+        t = Math.min(p4, p5); p5 = Math.max(p4, p5); p4 = t;
+        t = Math.min(p7, p8); p8 = Math.max(p7, p8); p7 = t;
+        p3 = Math.max(p0, p3);
+        p5 = Math.min(p5, p8);
+        t = Math.min(p4, p7); p7 = Math.max(p4, p7); p4 = t;
+        p6 = Math.max(p3, p6);
+        p4 = Math.max(p1, p4);
+        p2 = Math.min(p2, p5);
+        p4 = Math.min(p4, p7);
+        t = Math.min(p4, p2); p2 = Math.max(p4, p2); p4 = t;
+        p4 = Math.max(p6, p4);
+        return Math.min(p4, p2);
+    }
+
+    /**
+     * Median of a band of rows with a sliding histogram, for any radius
+     */
+    private static void medianHistogram(int[] src, int[] dst, int width, int height, int radius,
+                                        int startRow, int endRow) {
+        int[][] fine = new int[3][256];
+        int[][] coarse = new int[3][NUM_COARSE_BINS];
+
+        for (int y = startRow; y < endRow; y++) {
+            int y0 = Math.max(0, y - radius);
+            int y1 = Math.min(height - 1, y + radius);
+            for (int c = 0; c < 3; c++) {
+                Arrays.fill(fine[c], 0);
+                Arrays.fill(coarse[c], 0);
+            }
+
+            // Initial window for x = 0
+            for (int nx = 0; nx <= Math.min(width - 1, radius); nx++) {
+                updateColumn(src, width, nx, y0, y1, fine, coarse, 1);
+            }
+
+            for (int x = 0; x < width; x++) {
+                int x0 = Math.max(0, x - radius);
+                int x1 = Math.min(width - 1, x + radius);
+                int rank = (y1 - y0 + 1) * (x1 - x0 + 1) / 2;
+
+                int out = 0;
+                for (int c = 0; c < 3; c++) {
+                    out |= (select(fine[c], coarse[c], rank) ^ SIGN_FLIP) << (16 - 8 * c);
+                }
+                dst[y * width + x] = out;
+
+                // Slide the window one column to the right
+                if (x - radius >= 0) {
+                    updateColumn(src, width, x - radius, y0, y1, fine, coarse, -1);
+                }
+                if (x + radius + 1 < width) {
+                    updateColumn(src, width, x + radius + 1, y0, y1, fine, coarse, 1);
+                }
+            }
+        }
+    }
+
+    /**
+     * Add (delta = 1) or remove (delta = -1) a column of pixels to/from the histograms
+     */
+    private static void updateColumn(int[] src, int width, int x, int y0, int y1,
+                                     int[][] fine, int[][] coarse, int delta) {
+        for (int ny = y0; ny <= y1; ny++) {
+            int pixel = src[ny * width + x];
+            for (int c = 0; c < 3; c++) {
+                int v = key(pixel, 16 - 8 * c);
+                fine[c][v] += delta;
+                coarse[c][v >> COARSE_SHIFT] += delta;
+            }
+        }
+    }
+
+    /**
+     * Find the value at a given rank (0-based) in a histogram
+     */
+    private static int select(int[] fine, int[] coarse, int rank) {
+        int bin = 0;
+        while (rank >= coarse[bin]) {
+            rank -= coarse[bin++];
+        }
+        int v = bin << COARSE_SHIFT;
+        while (rank >= fine[v]) {
+            rank -= fine[v++];
+        }
+        return v;
+    }
+
+    /**
+     * Extract a channel from a packed pixel, as an int ordered like a signed byte
+     */
+    private static int key(int pixel, int shift) {
+        return ((pixel >>> shift) & 0xFF) ^ SIGN_FLIP;
+    }
+}
@@ -0,0 +1,169 @@
+package ics432.imgapp;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.FunctionDescriptor;
+import java.lang.foreign.Linker;
+import java.lang.foreign.MemoryLayout;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.StructLayout;
+import java.lang.foreign.SymbolLookup;
+import java.lang.foreign.ValueLayout;
+import java.lang.invoke.MethodHandle;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A class that calls the C filter kernels in-process, through the Foreign
+ * Function &amp; Memory (FFM) API, instead of running the filter programs.
+ * Each filter can be built as a shared library (e.g., libjpegedge.so), whose
+ * apply_filter() function is called on RGB planes in native memory, so there
+ * is no process to start and no JPEG file to encode and decode between the
+ * Java app and the filter.
+ * <p>
+ * The libraries are looked for in the directory given by the ICS432_FILTERS_BIN
+ * environment variable, and then in the java.library.path and in /usr/local/lib
+ * (after "sudo make install"). The FFM API is a preview API in Java 21: this
+ * class is compiled with --enable-preview, and cannot be loaded (which callers
+ * must handle) if the app is not run with --enable-preview.
+ */
+final class NativeFilterLibrary {
+
+    // The layout of struct rgb_image { int height; int width; unsigned char *RGB[3]; }
+    private static final StructLayout RGB_IMAGE = MemoryLayout.structLayout(
+            ValueLayout.JAVA_INT.withName("height"),
+            ValueLayout.JAVA_INT.withName("width"),
+            MemoryLayout.sequenceLayout(3, ValueLayout.ADDRESS).withName("RGB"));
+    private static final long RGB_OFFSET = RGB_IMAGE.byteOffset(MemoryLayout.PathElement.groupElement("RGB"));
+
+    // void apply_filter(struct rgb_image *input_image, struct rgb_image *output_image, int num_threads)
+    private static final FunctionDescriptor APPLY_FILTER = FunctionDescriptor.ofVoid(
+            ValueLayout.ADDRESS, ValueLayout.ADDRESS, ValueLayout.JAVA_INT);
+
+    // Cache of the apply_filter() handles (an empty Optional if there is no library)
+    private static final ConcurrentHashMap<String, Optional<MethodHandle>> handles = new ConcurrentHashMap<>();
+
+    private NativeFilterLibrary() {
+    }
+
+    /**
+     * Whether the shared library of an external filter is available
+     *
+     * @param command The filter program name (e.g., "jpegedge")
+     * @return true if the filter can be applied in-process
+     */
+    static boolean isAvailable(String command) {
+        return findApplyFilter(command) != null;
+    }
+
+    /**
+     * Apply an external filter in-process
+     *
+     * @param command The filter program name (e.g., "jpegedge"), see isAvailable()
+     * @param input The input pixels
+     * @param numThreads The number of data-parallel (OpenMP) threads the filter should use
+     * @return the output pixels
+     * @throws IOException If the native call failed
+     */
+    static IntRaster apply(String command, IntRaster input, int numThreads) throws IOException {
+        MethodHandle applyFilter = findApplyFilter(command);
+        if (applyFilter == null) {
+            throw new IllegalStateException("No shared library for " + command);
+        }
+        int width = input.getWidth();
+        int height = input.getHeight();
+        long planeSize = (long) width * height;
+        IntRaster output = IntRaster.create(width, height);
+
+        try (Arena arena = Arena.ofConfined()) {
+            MemorySegment inputPlanes = arena.allocate(3 * planeSize);
+            MemorySegment outputPlanes = arena.allocate(3 * planeSize);
+
+            // Split the packed pixels into the R, G, and B planes the filters work on
+            int[] pixels = input.getPixels();
+            for (int i = 0; i < pixels.length; i++) {
+                int pixel = pixels[i];
+                inputPlanes.set(ValueLayout.JAVA_BYTE, i, (byte) (pixel >>> 16));
+                inputPlanes.set(ValueLayout.JAVA_BYTE, planeSize + i, (byte) (pixel >>> 8));
+                inputPlanes.set(ValueLayout.JAVA_BYTE, 2 * planeSize + i, (byte) pixel);
+            }
+
+            MemorySegment inputImage = rgbImage(arena, inputPlanes, width, height);
+            MemorySegment outputImage = rgbImage(arena, outputPlanes, width, height);
+            try {
+                applyFilter.invokeExact(inputImage, outputImage, numThreads);
+            } catch (Throwable e) {
+                throw new IOException("Native filter " + command + " failed", e);
+            }
+
+            int[] outputPixels = output.getPixels();
+            for (int i = 0; i < outputPixels.length; i++) {
+                outputPixels[i] = ((outputPlanes.get(ValueLayout.JAVA_BYTE, i) & 0xFF) << 16)
+                        | ((outputPlanes.get(ValueLayout.JAVA_BYTE, planeSize + i) & 0xFF) << 8)
+                        | (outputPlanes.get(ValueLayout.JAVA_BYTE, 2 * planeSize + i) & 0xFF);
+            }
+        }
+        return output;
+    }
+
+    /**
+     * Allocate a struct rgb_image whose planes point into a segment of 3 consecutive planes
+     */
+    private static MemorySegment rgbImage(Arena arena, MemorySegment planes, int width, int height) {
+        long planeSize = (long) width * height;
+        MemorySegment image = arena.allocate(RGB_IMAGE);
+        image.set(ValueLayout.JAVA_INT, 0, height);
+        image.set(ValueLayout.JAVA_INT, ValueLayout.JAVA_INT.byteSize(), width);
+        for (int rgb = 0; rgb < 3; rgb++) {
+            image.set(ValueLayout.ADDRESS, RGB_OFFSET + rgb * ValueLayout.ADDRESS.byteSize(),
+                    planes.asSlice(rgb * planeSize, planeSize));
+        }
+        return image;
+    }
+
+    /**
+     * Load the shared library of a filter (once) and look up its apply_filter() function
+     *
+     * @return the function handle, or null if there is no library
+     */
+    private static MethodHandle findApplyFilter(String command) {
+        return handles.computeIfAbsent(command, c -> {
+            Path library = findLibrary(c);
+            if (library == null) {
+                return Optional.empty();
+            }
+            try {
+                SymbolLookup lookup = SymbolLookup.libraryLookup(library, Arena.global());
+                return lookup.find("apply_filter")
+                        .map(symbol -> Linker.nativeLinker().downcallHandle(symbol, APPLY_FILTER));
+            } catch (IllegalArgumentException | IllegalCallerException e) {
+                System.err.println("Could not load " + library + ": " + e.getMessage());
+                return Optional.empty();
+            }
+        }).orElse(null);
+    }
+
+    private static Path findLibrary(String command) {
+        String fileName = System.mapLibraryName(command);
+        StringBuilder dirs = new StringBuilder();
+        String binDir = System.getenv("ICS432_FILTERS_BIN");
+        if (binDir != null) {
+            dirs.append(binDir).append(File.pathSeparator);
+        }
+        dirs.append(System.getProperty("java.library.path", "")).append(File.pathSeparator).append("/usr/local/lib");
+        for (String dir : dirs.toString().split(File.pathSeparator)) {
+            if (dir.isEmpty()) {
+                continue;
+            }
+            Path candidate = Paths.get(dir, fileName);
+            if (Files.isReadable(candidate)) {
+                return candidate;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,55 @@
+package ics432.imgapp;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A class that counts the images of a job that have been processed, or that
+ * could not be processed, so that the thread that runs the job can wait until
+ * all of them are done
+ */
+public class NumProcessCounter {
+    private int numImageProcessed;
+    private final List<String> failures; // One "<input file>: <reason>" line per failed image
+
+    public NumProcessCounter() {
+        this.numImageProcessed = 0;
+        this.failures = new ArrayList<>();
+    }
+
+    // Synchronized increment to ensure thread safety
+    public synchronized void increment() {
+        this.numImageProcessed++;
+        notifyAll(); // Notify any waiting threads
+    }
+
+    /**
+     * Count an image that could not be processed
+     *
+     * @param inputFile The input file
+     * @param reason What went wrong
+     */
+    public synchronized void incrementFailed(Path inputFile, String reason) {
+        this.failures.add(inputFile + ": " + reason);
+        notifyAll(); // Notify any waiting threads
+    }
+
+    public synchronized int getNumImageProcessed() {
+        return numImageProcessed;
+    }
+
+    public synchronized int getNumImageFailed() {
+        return failures.size();
+    }
+
+    //getter method to retrieve the number of images processed or failed
+    public synchronized int getNumImageDone() {
+        return numImageProcessed + failures.size();
+    }
+
+    //getter method to retrieve the failed images and why they failed
+    public synchronized List<String> getFailures() {
+        return new ArrayList<>(failures);
+    }
+}
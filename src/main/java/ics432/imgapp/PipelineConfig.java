@@ -0,0 +1,89 @@
+package ics432.imgapp;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * A class that holds the settings that the pipeline stages read while they
+ * process work units. The main window's widgets (or the command-line arguments
+ * of the HeadlessBatchRunner) set them, so that the stages do not depend on
+ * the JavaFX user interface.
+ */
+final class PipelineConfig {
+
+    // The image decoders that the reader stage can use (see useJavaFXDecoder())
+    static final List<String> DECODER_NAMES = List.of("ImageIO", "JavaFX");
+
+    private static volatile int dpThreadCount = 1;
+    private static volatile boolean javaFXDecoder = false;
+    private static volatile boolean resultCache = true;
+    // Whether the Vector API can be used at all (see VectorKernels)
+    private static final boolean SIMD_SUPPORTED = probeSimd();
+    private static volatile boolean simd = SIMD_SUPPORTED;
+    // Long-lived work-stealing pools shared by the data-parallel filters, one per thread count
+    private static final ConcurrentHashMap<Integer, ForkJoinPool> pools = new ConcurrentHashMap<>();
+
+    private PipelineConfig() {
+    }
+
+    //getter method to retrieve the number of data-parallel threads per image
+    static int getDPThreadCount() {
+        return dpThreadCount;
+    }
+
+    //setter method to set the number of data-parallel threads per image
+    static void setDPThreadCount(int count) {
+        dpThreadCount = count;
+    }
+
+    /**
+     * Get the shared pool for a given number of data-parallel threads, creating it
+     * the first time (see RowBandTask)
+     * @param parallelism The number of threads
+     * @return The pool
+     */
+    static ForkJoinPool getPool(int parallelism) {
+        return pools.computeIfAbsent(parallelism, ForkJoinPool::new);
+    }
+
+    //getter method to retrieve whether images are decoded with JavaFX instead of ImageIO
+    static boolean useJavaFXDecoder() {
+        return javaFXDecoder;
+    }
+
+    //setter method to set whether images are decoded with JavaFX instead of ImageIO
+    static void setUseJavaFXDecoder(boolean useJavaFX) {
+        javaFXDecoder = useJavaFX;
+    }
+
+    //getter method to retrieve whether outputs are looked up in (and added to) the ResultCache
+    static boolean useResultCache() {
+        return resultCache;
+    }
+
+    //setter method to set whether outputs are looked up in (and added to) the ResultCache
+    static void setUseResultCache(boolean useCache) {
+        resultCache = useCache;
+    }
+
+    //getter method to retrieve whether filters use the SIMD kernels (if the Vector API is available)
+    static boolean useSimd() {
+        return simd;
+    }
+
+    //setter method to set whether filters use the SIMD kernels (ignored if the Vector API is not available)
+    static void setUseSimd(boolean useSimd) {
+        simd = useSimd && SIMD_SUPPORTED;
+    }
+
+    private static boolean probeSimd() {
+        try {
+            return VectorKernels.isSupported();
+        } catch (LinkageError e) {
+            // The Vector API is an incubator module in Java 21: the class cannot be
+            // loaded unless the app runs with --add-modules jdk.incubator.vector
+            return false;
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package ics432.imgapp;
+
+import com.jhlabs.image.PointFilter;
+
+import java.awt.image.BufferedImage;
+
+/**
+ * A class that implements a pointwise filter that maps each color channel of a
+ * pixel independently, as one 256-entry lookup table per channel. Such a filter
+ * (e.g., Invert, Solarize) is compiled into a table once, consecutive ones in a
+ * FilterChain are composed into a single table, and the table is applied in one
+ * pass over the packed pixels, instead of one virtual filterRGB() call per pixel
+ * through the jhlabs PointFilter path. Large images are split into stripes of
+ * rows that are mapped in parallel. The lookups use SIMD gathers if the Vector
+ * API is available (see VectorKernels).
+ */
+final class PointwiseLut {
+
+    // Images with fewer pixels than this are not worth splitting
+    private static final int MIN_PARALLEL_PIXELS = 256 * 1024;
+    // Minimum number of pixels in a stripe
+    private static final int MIN_STRIPE_PIXELS = 64 * 1024;
+
+    private final int[] red;
+    private final int[] green;
+    private final int[] blue;
+
+    private PointwiseLut(int[] red, int[] green, int[] blue) {
+        this.red = red;
+        this.green = green;
+        this.blue = blue;
+    }
+
+    /**
+     * Compile a per-channel jhlabs filter into lookup tables, by running each
+     * channel value through it once
+     *
+     * @param filter The filter, which must map each channel independently (and be ready to use)
+     * @return the lookup tables
+     */
+    static PointwiseLut compile(PointFilter filter) {
+        int[] red = new int[256];
+        int[] green = new int[256];
+        int[] blue = new int[256];
+        for (int v = 0; v < 256; v++) {
+            int rgb = filter.filterRGB(0, 0, 0xFF000000 | (v << 16) | (v << 8) | v);
+            red[v] = (rgb >> 16) & 0xFF;
+            green[v] = (rgb >> 8) & 0xFF;
+            blue[v] = rgb & 0xFF;
+        }
+        return new PointwiseLut(red, green, blue);
+    }
+
+    /**
+     * Compose with another lookup table
+     *
+     * @param next The filter to apply after this one
+     * @return the lookup tables of this filter followed by next
+     */
+    PointwiseLut andThen(PointwiseLut next) {
+        int[] red = new int[256];
+        int[] green = new int[256];
+        int[] blue = new int[256];
+        for (int v = 0; v < 256; v++) {
+            red[v] = next.red[this.red[v]];
+            green[v] = next.green[this.green[v]];
+            blue[v] = next.blue[this.blue[v]];
+        }
+        return new PointwiseLut(red, green, blue);
+    }
+
+    /**
+     * Apply the lookup tables to an image, using the data-parallel thread count
+     * for large images (see PipelineConfig)
+     *
+     * @param image The input image
+     * @return the output image (the alpha channel of a TYPE_INT_ARGB image is kept,
+     * while other images come out as TYPE_INT_RGB)
+     */
+    BufferedImage apply(BufferedImage image) {
+        IntRaster src = IntRaster.of(image);
+        // If the image had to be converted, the converted pixels are ours to overwrite
+        IntRaster dest = (src.getImage() != image) ? src
+                : IntRaster.create(src.getWidth(), src.getHeight(), image.getType()); // Same type, so alpha is kept
+        int width = src.getWidth();
+        int height = src.getHeight();
+        int numThreads = PipelineConfig.getDPThreadCount();
+
+        if (numThreads == 1 || width * height < MIN_PARALLEL_PIXELS) {
+            map(src.getPixels(), dest.getPixels(), 0, width * height);
+        } else {
+            int stripeRows = Math.max(MIN_STRIPE_PIXELS / Math.max(1, width), height / numThreads);
+            int[] srcPixels = src.getPixels();
+            int[] destPixels = dest.getPixels();
+            RowBandTask.run(numThreads, height, stripeRows,
+                    (startRow, endRow) -> map(srcPixels, destPixels, startRow * width, endRow * width));
+        }
+        return dest.getImage();
+    }
+
+    /**
+     * Map a range of packed pixels (src and dest may be the same array)
+     */
+    private void map(int[] src, int[] dest, int from, int to) {
+        if (PipelineConfig.useSimd()) {
+            VectorKernels.lookup(src, dest, from, to, red, green, blue);
+            return;
+        }
+        int[] red = this.red;
+        int[] green = this.green;
+        int[] blue = this.blue;
+        for (int i = from; i < to; i++) {
+            int p = src[i];
+            dest[i] = (p & 0xFF000000) | (red[(p >> 16) & 0xFF] << 16) | (green[(p >> 8) & 0xFF] << 8) | blue[p & 0xFF];
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package ics432.imgapp;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+
+/**
+ * A class that implements a persistent, content-addressed cache of output images,
+ * so that re-running a filter on an unchanged input file does not decode, filter,
+ * and encode it again. An entry is keyed by a hash of the input file bytes, the
+ * filter name, and the filter parameters, and is a hard link to (or, if that is not
+ * possible, a copy of) the output file that was written for it.
+ * <p>
+ * The cache lives in the directory given by the ICS432_CACHE_DIR environment
+ * variable, or in ~/.cache/ics432imgapp. It is never evicted, but can be
+ * deleted at any time.
+ */
+final class ResultCache {
+
+    // Changing this invalidates all existing entries (e.g., if the encoder settings change)
+    private static final String VERSION = "1";
+    private static final Path CACHE_DIR = System.getenv("ICS432_CACHE_DIR") != null
+            ? Paths.get(System.getenv("ICS432_CACHE_DIR"))
+            : Paths.get(System.getProperty("user.home"), ".cache", "ics432imgapp");
+
+    private ResultCache() {
+    }
+
+    /**
+     * Compute the cache key of an input file and a filter
+     *
+     * @param inputFile The input image file
+     * @param chain The filter chain
+     * @return the key (a hex SHA-256 digest)
+     * @throws IOException If the input file could not be read
+     */
+    static String key(Path inputFile, FilterChain chain) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+        String header = VERSION + "\0" + chain.getName() + "\0" + chain.getParameters() + "\0";
+        digest.update(header.getBytes(StandardCharsets.UTF_8));
+        byte[] buffer = new byte[64 * 1024];
+        try (InputStream in = Files.newInputStream(inputFile)) {
+            int n;
+            while ((n = in.read(buffer)) > 0) {
+                digest.update(buffer, 0, n);
+            }
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    /**
+     * Put the cached output for a key, if any, in place of an output file
+     *
+     * @param key The cache key
+     * @param outputFile The output file to create (replaced if it exists)
+     * @return true on a cache hit
+     * @throws IOException If the output file could not be created
+     */
+    static boolean fetch(String key, Path outputFile) throws IOException {
+        Path entry = CACHE_DIR.resolve(key + ".jpg");
+        if (!Files.isRegularFile(entry)) {
+            return false;
+        }
+        Files.deleteIfExists(outputFile);
+        try {
+            Files.createLink(outputFile, entry);
+        } catch (IOException | UnsupportedOperationException e) {
+            // E.g., the target directory is on another file system
+            Files.copy(entry, outputFile, StandardCopyOption.REPLACE_EXISTING);
+        }
+        return true;
+    }
+
+    /**
+     * Add an output file to the cache. Failures are only reported, since the cache
+     * is an optimization.
+     *
+     * @param key The cache key
+     * @param outputFile The output file that was written for the key
+     */
+    static void store(String key, Path outputFile) {
+        Path entry = CACHE_DIR.resolve(key + ".jpg");
+        Path temp = null;
+        try {
+            Files.createDirectories(CACHE_DIR);
+            // Create the entry under a temporary name first, so that a partial entry is never visible
+            temp = CACHE_DIR.resolve(key + "." + ProcessHandle.current().pid() + "-" + Thread.currentThread().threadId() + ".tmp");
+            Files.deleteIfExists(temp);
+            try {
+                Files.createLink(temp, outputFile);
+            } catch (IOException | UnsupportedOperationException e) {
+                Files.copy(outputFile, temp);
+            }
+            Files.move(temp, entry, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            System.err.println("Could not add " + outputFile + " to the result cache: " + e.getMessage());
+            try {
+                if (temp != null) {
+                    Files.deleteIfExists(temp);
+                }
+            } catch (IOException ignore) {
+            }
+        }
+    }
+}
@@ -0,0 +1,317 @@
+package ics432.imgapp;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A lock-free bounded buffer for multiple producers and multiple consumers.
+ * It is a ring of slots, each with its own sequence number, and producers and
+ * consumers claim slots by incrementing the tail and head counters with a CAS
+ * (see D. Vyukov's bounded MPMC queue). Producers and consumers thus never share
+ * a lock, and the two counters are padded so that they don't share a cache line.
+ * Batches (see putAll() and drainTo()) claim a whole range of consecutive slots
+ * with a single CAS. A full/empty buffer is waited on according to a {@link WaitStrategy}.
+ * @param <T> The type of the elements in the buffer
+ */
+public class RingBoundedBuffer<T> implements BoundedBuffer<T> {
+
+    /**
+     * How a thread waits for a slot when the buffer is full (producer) or empty (consumer)
+     */
+    public enum WaitStrategy {
+        // Busy-spin, lowest latency but burns a core per waiting thread
+        SPIN,
+        // Spin for a while, then yield the core to other threads
+        YIELD,
+        // Spin, then yield, then park for exponentially longer periods
+        PARK;
+
+        private static final int SPIN_TRIES = 100;
+        private static final int YIELD_TRIES = 200;
+        private static final long MAX_PARK_NANOS = 1_000_000;
+
+        /**
+         * Wait once
+         * @param tries The number of times this thread has already waited
+         * @throws InterruptedException If the thread is interrupted
+         */
+        void idle(int tries) throws InterruptedException {
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+            if (this == SPIN || tries < SPIN_TRIES) {
+                Thread.onSpinWait();
+            } else if (this == YIELD || tries < YIELD_TRIES) {
+                Thread.yield();
+            } else {
+                int shift = Math.min(tries - YIELD_TRIES, 10);
+                LockSupport.parkNanos(Math.min(1000L << shift, MAX_PARK_NANOS));
+            }
+        }
+    }
+
+    private static final VarHandle SEQUENCES = MethodHandles.arrayElementVarHandle(long[].class);
+
+    private final Object[] items;
+    private final long[] sequences;
+    private final int mask;
+    private final PaddedCounter head = new PaddedCounter(); // next slot to take
+    private final PaddedCounter tail = new PaddedCounter(); // next slot to put
+    private final WaitStrategy waitStrategy;
+
+    /**
+     * Constructor
+     * @param capacity The capacity of the buffer (rounded up to a power of two)
+     * @param waitStrategy How to wait when the buffer is full or empty
+     */
+    public RingBoundedBuffer(int capacity, WaitStrategy waitStrategy) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+        }
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) {
+            size <<= 1;
+        }
+        this.items = new Object[size];
+        this.sequences = new long[size];
+        this.mask = size - 1;
+        for (int i = 0; i < size; i++) {
+            this.sequences[i] = i;
+        }
+        this.waitStrategy = waitStrategy;
+    }
+
+    /**
+     * Put an item into the buffer if there is room
+     * @param item The item to put into the buffer
+     * @return true if the item was put, false if the buffer was full
+     */
+    public boolean offer(T item) {
+        long pos = tail.get();
+        while (true) {
+            int index = (int) (pos & mask);
+            long seq = (long) SEQUENCES.getAcquire(sequences, index);
+            long diff = seq - pos;
+            if (diff == 0) {
+                if (tail.compareAndSet(pos, pos + 1)) {
+                    items[index] = item;
+                    SEQUENCES.setRelease(sequences, index, pos + 1); // publish to consumers
+                    return true;
+                }
+                pos = tail.get();
+            } else if (diff < 0) {
+                return false; // The slot has not been consumed yet: full
+            } else {
+                pos = tail.get(); // Another producer got there first
+            }
+        }
+    }
+
+    /**
+     * Take an item from the buffer if there is one
+     * @return The item taken from the buffer, or null if the buffer was empty
+     */
+    @SuppressWarnings("unchecked")
+    public T poll() {
+        long pos = head.get();
+        while (true) {
+            int index = (int) (pos & mask);
+            long seq = (long) SEQUENCES.getAcquire(sequences, index);
+            long diff = seq - (pos + 1);
+            if (diff == 0) {
+                if (head.compareAndSet(pos, pos + 1)) {
+                    T item = (T) items[index];
+                    items[index] = null;
+                    SEQUENCES.setRelease(sequences, index, pos + mask + 1); // hand the slot back to producers
+                    return item;
+                }
+                pos = head.get();
+            } else if (diff < 0) {
+                return null; // The slot has not been produced yet: empty
+            } else {
+                pos = head.get(); // Another consumer got there first
+            }
+        }
+    }
+
+    /**
+     * Put as many items of a batch into the buffer as there is room for, claiming
+     * their slots with a single CAS
+     * @param batch The items
+     * @param from The index of the first item to put
+     * @return The number of items put (0 if the buffer was full)
+     */
+    private int offerAll(List<T> batch, int from) {
+        int count = Math.min(batch.size() - from, mask + 1);
+        long pos = tail.get();
+        while (true) {
+            // Count the consecutive free slots from the tail
+            int free = 0;
+            while (free < count && (long) SEQUENCES.getAcquire(sequences, (int) ((pos + free) & mask)) == pos + free) {
+                free++;
+            }
+            if (free == 0) {
+                long seq = (long) SEQUENCES.getAcquire(sequences, (int) (pos & mask));
+                if (seq - pos < 0) {
+                    return 0; // The slot has not been consumed yet: full
+                }
+                pos = tail.get(); // Another producer got there first
+            } else if (tail.compareAndSet(pos, pos + free)) {
+                for (int i = 0; i < free; i++) {
+                    int index = (int) ((pos + i) & mask);
+                    items[index] = batch.get(from + i);
+                    SEQUENCES.setRelease(sequences, index, pos + i + 1); // publish to consumers
+                }
+                return free;
+            } else {
+                pos = tail.get();
+            }
+        }
+    }
+
+    /**
+     * Take as many items as are available, up to a maximum, claiming their
+     * slots with a single CAS
+     * @param batch The collection to which the items are added
+     * @param maxItems The maximum number of items to take
+     * @return The number of items taken (0 if the buffer was empty)
+     */
+    @SuppressWarnings("unchecked")
+    private int pollAll(Collection<? super T> batch, int maxItems) {
+        int count = Math.min(maxItems, mask + 1);
+        long pos = head.get();
+        while (true) {
+            // Count the consecutive produced slots from the head
+            int available = 0;
+            while (available < count
+                    && (long) SEQUENCES.getAcquire(sequences, (int) ((pos + available) & mask)) == pos + available + 1) {
+                available++;
+            }
+            if (available == 0) {
+                long seq = (long) SEQUENCES.getAcquire(sequences, (int) (pos & mask));
+                if (seq - (pos + 1) < 0) {
+                    return 0; // The slot has not been produced yet: empty
+                }
+                pos = head.get(); // Another consumer got there first
+            } else if (head.compareAndSet(pos, pos + available)) {
+                for (int i = 0; i < available; i++) {
+                    int index = (int) ((pos + i) & mask);
+                    batch.add((T) items[index]);
+                    items[index] = null;
+                    SEQUENCES.setRelease(sequences, index, pos + i + mask + 1); // hand the slot back to producers
+                }
+                return available;
+            } else {
+                pos = head.get();
+            }
+        }
+    }
+
+    /**
+     * Put an item into the buffer
+     * @param item The item to put into the buffer
+     * @throws InterruptedException If the thread is interrupted
+     * The producer.
+     */
+    @Override
+    public void put(T item) throws InterruptedException {
+        int tries = 0;
+        while (!offer(item)) {
+            waitStrategy.idle(tries++); // Waits if the buffer is full
+        }
+    }
+
+    /**
+     * Take an item from the buffer
+     * @return The item taken from the buffer
+     * @throws InterruptedException If the thread is interrupted
+     * The consumer.
+     */
+    @Override
+    public T take() throws InterruptedException {
+        int tries = 0;
+        T item;
+        while ((item = poll()) == null) {
+            waitStrategy.idle(tries++); // Waits if the buffer is empty
+        }
+        return item;
+    }
+
+    /**
+     * Put a batch of items into the buffer, in order, claiming as many slots
+     * at once as there is room for
+     * @param items The items to put into the buffer
+     * @throws InterruptedException If the thread is interrupted
+     * The producer.
+     */
+    @Override
+    public void putAll(List<T> items) throws InterruptedException {
+        int from = 0;
+        int tries = 0;
+        while (from < items.size()) {
+            int count = offerAll(items, from);
+            if (count == 0) {
+                waitStrategy.idle(tries++); // Waits if the buffer is full
+            } else {
+                from += count;
+                tries = 0;
+            }
+        }
+    }
+
+    /**
+     * Take a batch of items from the buffer
+     * @param batch The collection to which the items are added
+     * @param maxItems The maximum number of items to take
+     * @return The number of items taken
+     * @throws InterruptedException If the thread is interrupted
+     */
+    @Override
+    public int drainTo(Collection<? super T> batch, int maxItems) throws InterruptedException {
+        int tries = 0;
+        int count;
+        while ((count = pollAll(batch, maxItems)) == 0) {
+            waitStrategy.idle(tries++); // Waits if the buffer is empty
+        }
+        return count;
+    }
+
+    /**
+     * A counter padded on both sides so that it sits alone on its cache line
+     */
+    @SuppressWarnings("unused")
+    private static class PaddedCounterLeft {
+        long p01, p02, p03, p04, p05, p06, p07;
+    }
+
+    @SuppressWarnings("unused")
+    private static class PaddedCounterValue extends PaddedCounterLeft {
+        volatile long value;
+    }
+
+    @SuppressWarnings("unused")
+    private static final class PaddedCounter extends PaddedCounterValue {
+        private static final VarHandle VALUE;
+
+        static {
+            try {
+                VALUE = MethodHandles.lookup().findVarHandle(PaddedCounterValue.class, "value", long.class);
+            } catch (ReflectiveOperationException e) {
+                throw new ExceptionInInitializerError(e);
+            }
+        }
+
+        long p11, p12, p13, p14, p15, p16, p17;
+
+        long get() {
+            return value;
+        }
+
+        boolean compareAndSet(long expected, long newValue) {
+            return VALUE.compareAndSet(this, expected, newValue);
+        }
+    }
+}
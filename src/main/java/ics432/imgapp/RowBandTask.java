@@ -0,0 +1,61 @@
+package ics432.imgapp;
+
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * A task that filters a band of rows of an image, splitting itself in two
+ * until the band is no taller than the tile size. The data-parallel filters
+ * (DPMedianFilter, DPEdgeFilter, DPFunkFilter, and PointwiseLut) run it on
+ * the shared pools (see PipelineConfig.getPool()).
+ */
+final class RowBandTask extends RecursiveAction {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * The work a filter does on a band of rows
+     */
+    @FunctionalInterface
+    interface Band {
+        /**
+         * @param startRow The first row to compute
+         * @param endRow One past the last row to compute
+         */
+        void compute(int startRow, int endRow);
+    }
+
+    private final transient Band band; // Tasks are never serialized
+    private final int startRow;
+    private final int endRow;
+    private final int tileRows;
+
+    private RowBandTask(Band band, int startRow, int endRow, int tileRows) {
+        this.band = band;
+        this.startRow = startRow;
+        this.endRow = endRow;
+        this.tileRows = tileRows;
+    }
+
+    /**
+     * Compute all the rows of an image in parallel, and wait until they are done
+     *
+     * @param numThreads The number of data-parallel threads
+     * @param height The number of rows
+     * @param tileRows The maximum number of rows in a tile
+     * @param band The work on a band of rows
+     */
+    static void run(int numThreads, int height, int tileRows, Band band) {
+        PipelineConfig.getPool(numThreads).invoke(new RowBandTask(band, 0, height, tileRows));
+    }
+
+    @Override
+    protected void compute() {
+        if (endRow - startRow <= tileRows) {
+            band.compute(startRow, endRow);
+        } else {
+            int middleRow = (startRow + endRow) >>> 1;
+            invokeAll(new RowBandTask(band, startRow, middleRow, tileRows),
+                    new RowBandTask(band, middleRow, endRow, tileRows));
+        }
+    }
+}
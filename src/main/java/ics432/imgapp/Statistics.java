@@ -1,38 +1,78 @@
 package ics432.imgapp;
 
-import javafx.beans.property.*;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 
 
 /**
- * A class that defines the statistics object that keeps track of the statistics of the application
+ * A class that defines the statistics object that keeps track of the statistics of the application.
+ * It does not depend on JavaFX, so that the pipeline stages can update it in the HeadlessBatchRunner
+ * too: the StatisticsWindow follows the values it displays with addListener().
  */
 class Statistics {
-    public final HashMap<String, SimpleDoubleProperty> content;
+
+    // The statistics of the app, which the pipeline stages update
+    static final Statistics INSTANCE = new Statistics();
+
+    private final HashMap<String, Double> content;
+    private final HashMap<String, List<Runnable>> listeners;
 
     /**
      * Constructor
      */
      public Statistics(){
         this.content = new HashMap<>();
-        this.content.put("num_completed_jobs", new SimpleDoubleProperty(0));
-        this.content.put("num_processed_images", new SimpleDoubleProperty(0));
-        ICS432ImgApp.filterNames.forEach((t) -> {
-            this.content.put("filter_bytes_" + t,
-                    new SimpleDoubleProperty(0));
-            this.content.put("filter_time_" + t,
-                    new SimpleDoubleProperty(0));
-            this.content.put("filter_speed_" + t,
-                    new SimpleDoubleProperty(0));
+        this.listeners = new HashMap<>();
+        this.content.put("num_completed_jobs", 0.0);
+        this.content.put("num_processed_images", 0.0);
+        this.content.put("cache_hits", 0.0);
+        this.content.put("cache_misses", 0.0);
+        FilterRegistry.getFilterNames().forEach((t) -> {
+            this.content.put("filter_bytes_" + t, 0.0);
+            this.content.put("filter_time_" + t, 0.0);
+            this.content.put("filter_speed_" + t, 0.0);
+        });
+        PipelineConfig.DECODER_NAMES.forEach((d) -> {
+            this.content.put("decode_bytes_" + d, 0.0);
+            this.content.put("decode_time_" + d, 0.0);
+            this.content.put("decode_speed_" + d, 0.0);
         });
      }
 
+    /**
+     * Method to add a listener that is called (by the thread that updates the statistics,
+     * which must not be kept waiting) each time a statistic changes
+     * @param pName The name of the statistic
+     * @param listener The listener
+     */
+    public synchronized void addListener(String pName, Runnable listener) {
+        this.listeners.computeIfAbsent(pName, k -> new ArrayList<>()).add(listener);
+    }
+
+    /**
+     * @param pName The name of the statistic
+     * @return its current value
+     */
+    public synchronized double get(String pName) {
+        return this.content.get(pName);
+    }
+
+    /**
+     * Method to set a statistic and notify its listeners
+     */
+    private void set(String pName, double value) {
+        this.content.put(pName, value);
+        for (Runnable listener : this.listeners.getOrDefault(pName, List.of())) {
+            listener.run();
+        }
+    }
+
     /**
      * Method to update the number of job completed
      */
      public synchronized void newlyCompletedJob() {
-         SimpleDoubleProperty p1 = this.content.get("num_completed_jobs");
-         p1.set(p1.get() + 1);
+         set("num_completed_jobs", get("num_completed_jobs") + 1);
      }
 
     /**
@@ -40,19 +80,41 @@ class Statistics {
      * Method to update the number of images processed for thread
      */
     public synchronized void newlyCompletedImageThread() {
-        SimpleDoubleProperty p1 = this.content.get("num_processed_images");
-        p1.set(p1.get() + 1);
+        set("num_processed_images", get("num_processed_images") + 1);
     }
     /**
      * Method to update the statistics of the filter after processing the Job. Specified for threads
      */
     public synchronized void newlyProcessedJobThread(String filterName, double mb, double sec) {
-        SimpleDoubleProperty p1 = this.content.get("filter_bytes_" + filterName);
-        p1.set(p1.get() + mb);
-        SimpleDoubleProperty p2 = this.content.get("filter_time_" + filterName);
-        p2.set(p2.get() + sec);
-        SimpleDoubleProperty p3 = this.content.get("filter_speed_" + filterName);
-        p3.set(p1.get() / p2.get());
+        if (!this.content.containsKey("filter_bytes_" + filterName)) {
+            return; // A chain of filters (see FilterChain), whose time cannot be split among its filters
+        }
+        set("filter_bytes_" + filterName, get("filter_bytes_" + filterName) + mb);
+        set("filter_time_" + filterName, get("filter_time_" + filterName) + sec);
+        set("filter_speed_" + filterName, get("filter_bytes_" + filterName) / get("filter_time_" + filterName));
+    }
+
+    /**
+     * Method to update the result cache hit/miss counts after looking up an image
+     * @param hit Whether the output image was in the cache
+     */
+    public synchronized void newlyLookedUpCache(boolean hit) {
+        String pName = hit ? "cache_hits" : "cache_misses";
+        set(pName, get(pName) + 1);
+    }
+
+    /**
+     * Method to update the statistics of a decoder after decoding an image
+     * @param decoderName The name of the decoder
+     * @param mb The size of the image file in MB
+     * @param sec The time taken to decode the image
+     */
+    public synchronized void newlyDecodedImage(String decoderName, double mb, double sec) {
+        set("decode_bytes_" + decoderName, get("decode_bytes_" + decoderName) + mb);
+        set("decode_time_" + decoderName, get("decode_time_" + decoderName) + sec);
+        if (get("decode_time_" + decoderName) > 0) {
+            set("decode_speed_" + decoderName, get("decode_bytes_" + decoderName) / get("decode_time_" + decoderName));
+        }
     }
 
     /**
@@ -62,14 +124,10 @@ class Statistics {
      * @param sec The time taken to process the image
      */
      public synchronized void newlyProcessedImage(String filterName, double mb, double sec) {
-         SimpleDoubleProperty p1 = this.content.get("num_processed_images");
-         p1.set(p1.get() + 1);
-         SimpleDoubleProperty p2 = this.content.get("filter_bytes_" + filterName);
-         p2.set(p2.get() + mb);
-         SimpleDoubleProperty p3 = this.content.get("filter_time_" + filterName);
-         p3.set(p3.get() + sec);
-         SimpleDoubleProperty p4 = this.content.get("filter_speed_" + filterName);
-         p4.set(p2.get() / p3.get());
+         set("num_processed_images", get("num_processed_images") + 1);
+         set("filter_bytes_" + filterName, get("filter_bytes_" + filterName) + mb);
+         set("filter_time_" + filterName, get("filter_time_" + filterName) + sec);
+         set("filter_speed_" + filterName, get("filter_bytes_" + filterName) / get("filter_time_" + filterName));
      }
 
     /**
@@ -77,13 +135,14 @@ class Statistics {
      * @param pName The name of the property
      * @return the updated value of the property to string and display
      */
-    public String toString(String pName) {
-        SimpleDoubleProperty p = this.content.get(pName);
-        if (pName.equals("num_completed_jobs") || pName.equals("num_processed_images")) {
-            return Integer.toString((int)p.get());
+    public synchronized String toString(String pName) {
+        double p = get(pName);
+        if (pName.equals("num_completed_jobs") || pName.equals("num_processed_images")
+                || pName.equals("cache_hits") || pName.equals("cache_misses")) {
+            return Integer.toString((int)p);
         } else {
-            return String.format("%.2f", p.get());
+            return String.format("%.2f", p);
         }
     }
 
-}
\ No newline at end of file
+}
@@ -53,8 +53,12 @@ class StatisticsWindow extends Stage {
 
         lineSpecs.add(new Pair<>("Number of completed jobs", "num_completed_jobs"));
         lineSpecs.add(new Pair<>("Number of processed images", "num_processed_images"));
+        lineSpecs.add(new Pair<>("Result cache hits", "cache_hits"));
+        lineSpecs.add(new Pair<>("Result cache misses", "cache_misses"));
         ICS432ImgApp.filterNames.forEach((f) -> lineSpecs.add(new Pair<>(f + " compute speed (MB/sec)",
                 "filter_speed_" + f)));
+        ICS432ImgApp.decoderNames.forEach((d) -> lineSpecs.add(new Pair<>(d + " decode speed (MB/sec)",
+                "decode_speed_" + d)));
 
         VBox layout = new VBox();
 
@@ -64,13 +68,13 @@ class StatisticsWindow extends Stage {
             prefixLabel.setPrefWidth(250);
             prefixLabel.setFont(new Font(14));
             row.getChildren().add(prefixLabel);
-            Text valueLabel = new Text(ICS432ImgApp.statistics.toString(s.getValue()));
+            Text valueLabel = new Text(Statistics.INSTANCE.toString(s.getValue()));
             valueLabel.setFont(new Font("Arial", 14));
 
             row.getChildren().add(valueLabel);
             layout.getChildren().add(row);
-            ICS432ImgApp.statistics.content.get(s.getValue()).addListener(
-                    (observable, oldValue, newValue) -> Platform.runLater(() -> valueLabel.setText(ICS432ImgApp.statistics.toString(s.getValue())))
+            Statistics.INSTANCE.addListener(s.getValue(),
+                    () -> Platform.runLater(() -> valueLabel.setText(Statistics.INSTANCE.toString(s.getValue())))
             );
 
             HBox row1 = new HBox(5);
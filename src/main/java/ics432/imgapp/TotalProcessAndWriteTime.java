@@ -0,0 +1,41 @@
+package ics432.imgapp;
+
+/**
+ * A class that accumulates the time the pipeline stages spent on the images of a job
+ */
+public class TotalProcessAndWriteTime {
+    private double readTime;
+    private double processTime;
+    private double writeTime;
+
+    public TotalProcessAndWriteTime() {
+        this.readTime = 0.0;
+        this.processTime = 0.0;
+        this.writeTime = 0.0;
+    }
+
+    // Synchronized increment to ensure thread safety
+    public synchronized void incrementReadTime(double time) {
+        this.readTime += time;
+    }
+
+    public synchronized void incrementProcessTime(double time) {
+        this.processTime += time;
+    }
+
+    public synchronized void incrementWriteTime(double time) {
+        this.writeTime += time;
+    }
+
+    public double getReadTime() {
+        return readTime;
+    }
+
+    public double getProcessTime() {
+        return processTime;
+    }
+
+    public double getWriteTime() {
+        return writeTime;
+    }
+}
@@ -0,0 +1,147 @@
+package ics432.imgapp;
+
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * SIMD versions of the in-house filter kernels, written with the Vector API
+ * (jdk.incubator.vector), that process as many packed pixels at once as the
+ * CPU's widest vector registers hold (e.g., 8 with AVX2). They compute exactly
+ * the same output as the scalar kernels they replace (see PointwiseLut and
+ * MedianKernel), which also handle what these do not (e.g., image borders).
+ * <p>
+ * The Vector API is an incubator module in Java 21: this class is compiled with
+ * --add-modules jdk.incubator.vector, and cannot be loaded (which callers must
+ * handle, see PipelineConfig.useSimd()) if the app is not run with it.
+ */
+final class VectorKernels {
+
+    private static final VectorSpecies<Integer> SPECIES = IntVector.SPECIES_PREFERRED;
+    private static final int SIGN_FLIP = 0x80;
+
+    private VectorKernels() {
+    }
+
+    /**
+     * @return true if the CPU has vector registers that hold several pixels (otherwise,
+     * the Vector API falls back to a slow Java implementation)
+     */
+    static boolean isSupported() {
+        return SPECIES.length() >= 4;
+    }
+
+    /**
+     * Map a range of packed pixels through per-channel lookup tables (src and
+     * dest may be the same array), using vector gathers for the table lookups
+     *
+     * @param src The source pixels
+     * @param dest The destination pixels
+     * @param from The first pixel to map
+     * @param to One past the last pixel to map
+     * @param red The red table (256 entries)
+     * @param green The green table (256 entries)
+     * @param blue The blue table (256 entries)
+     */
+    static void lookup(int[] src, int[] dest, int from, int to, int[] red, int[] green, int[] blue) {
+        int lanes = SPECIES.length();
+        // The gathers take their indices from an array
+        int[] indices = new int[3 * lanes];
+        int i = from;
+        for (; i <= to - lanes; i += lanes) {
+            IntVector p = IntVector.fromArray(SPECIES, src, i);
+            p.lanewise(VectorOperators.LSHR, 16).and(0xFF).intoArray(indices, 0);
+            p.lanewise(VectorOperators.LSHR, 8).and(0xFF).intoArray(indices, lanes);
+            p.and(0xFF).intoArray(indices, 2 * lanes);
+            IntVector r = IntVector.fromArray(SPECIES, red, 0, indices, 0);
+            IntVector g = IntVector.fromArray(SPECIES, green, 0, indices, lanes);
+            IntVector b = IntVector.fromArray(SPECIES, blue, 0, indices, 2 * lanes);
+            p.and(0xFF000000)
+                    .or(r.lanewise(VectorOperators.LSHL, 16))
+                    .or(g.lanewise(VectorOperators.LSHL, 8))
+                    .or(b)
+                    .intoArray(dest, i);
+        }
+        for (; i < to; i++) {
+            int p = src[i];
+            dest[i] = (p & 0xFF000000) | (red[(p >> 16) & 0xFF] << 16) | (green[(p >> 8) & 0xFF] << 8) | blue[p & 0xFF];
+        }
+    }
+
+    /**
+     * 3x3 median of the interior pixels of a row, one pixel per lane, with the
+     * same min/max sorting network as MedianKernel.median9()
+     *
+     * @param src The source pixels
+     * @param dst The destination pixels
+     * @param width The image width
+     * @param y The row, which must not be the first or last one
+     * @return the first pixel of the row that was not computed (at most width - 1, the
+     * scalar kernel computes the rest of the row)
+     */
+    static int median3x3Row(int[] src, int[] dst, int width, int y) {
+        int lanes = SPECIES.length();
+        int row = y * width;
+        int x = 1;
+        for (; x + lanes <= width - 1; x += lanes) {
+            int up = row - width + x;
+            int mid = row + x;
+            int down = row + width + x;
+            // One call per channel, so that the shifts are constants once inlined
+            IntVector out = medianChannel(src, up, mid, down, 16)
+                    .or(medianChannel(src, up, mid, down, 8))
+                    .or(medianChannel(src, up, mid, down, 0));
+            out.intoArray(dst, mid);
+        }
+        return x;
+    }
+
+    /**
+     * 3x3 median of a channel of consecutive pixels. The neighbors are loaded again for
+     * each channel (the loads hit the L1 cache), so that the sorting network does not run
+     * out of vector registers (16 with AVX2).
+     *
+     * @return the median channel values, shifted back in place
+     */
+    private static IntVector medianChannel(int[] src, int up, int mid, int down, int shift) {
+        IntVector m = median9(
+                key(src, up - 1, shift), key(src, up, shift), key(src, up + 1, shift),
+                key(src, mid - 1, shift), key(src, mid, shift), key(src, mid + 1, shift),
+                key(src, down - 1, shift), key(src, down, shift), key(src, down + 1, shift));
+        return m.lanewise(VectorOperators.XOR, SIGN_FLIP).lanewise(VectorOperators.LSHL, shift);
+    }
+
+    /**
+     * Median of 9 vectors, lane by lane, with a 19-comparator sorting network
+     */
+    private static IntVector median9(IntVector p0, IntVector p1, IntVector p2, IntVector p3, IntVector p4,
+                                     IntVector p5, IntVector p6, IntVector p7, IntVector p8) {
+        IntVector t;
+        t = p1.min(p2); p2 = p1.max(p2); p1 = t;
+        t = p4.min(p5); p5 = p4.max(p5); p4 = t;
+        t = p7.min(p8); p8 = p7.max(p8); p7 = t;
+        t = p0.min(p1); p1 = p0.max(p1); p0 = t;
+        t = p3.min(p4); p4 = p3.max(p4); p3 = t;
+        t = p6.min(p7); p7 = p6.max(p7); p6 = t;
+        t = p1.min(p2); p2 = p1.max(p2); p1 = t;
+        t = p4.min(p5); p5 = p4.max(p5); p4 = t;
+        t = p7.min(p8); p8 = p7.max(p8); p7 = t;
+        p3 = p0.max(p3);
+        p5 = p5.min(p8);
+        t = p4.min(p7); p7 = p4.max(p7); p4 = t;
+        p6 = p3.max(p6);
+        p4 = p1.max(p4);
+        p2 = p2.min(p5);
+        p4 = p4.min(p7);
+        t = p4.min(p2); p2 = p4.max(p2); p4 = t;
+        p4 = p6.max(p4);
+        return p4.min(p2);
+    }
+
+    /**
+     * Load packed pixels and extract a channel, as ints ordered like signed bytes (see MedianKernel)
+     */
+    private static IntVector key(int[] src, int offset, int shift) {
+        return IntVector.fromArray(SPECIES, src, offset).lanewise(VectorOperators.LSHR, shift).and(0xFF).lanewise(VectorOperators.XOR, SIGN_FLIP);
+    }
+}
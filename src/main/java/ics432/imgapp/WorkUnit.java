@@ -1,9 +1,8 @@
 package ics432.imgapp;
 
-import javafx.scene.control.ProgressBar;
-import javafx.scene.image.Image;
-
+import javax.imageio.ImageIO;
 import java.awt.image.BufferedImage;
+import java.io.IOException;
 import java.nio.file.Path;
 
 /**
@@ -14,58 +13,199 @@ import java.nio.file.Path;
  * should stop processing work units.
  */
 public class WorkUnit {
+    private final int jobId;
     private Path inputFile;
-    private Image inputImage; // This should be loaded in the constructor
+    private BufferedImage inputImage; // Loaded by a reader thread, see loadInputImage()
     private BufferedImage outputImage;
     private final Path targetDir;
     private final String filterName;
-    private final FileListWithViewPort flwvp;
-    private final ProgressBar progressBar;
-    private final JobWindow.NumProcessCounter numberOfImagesProcessed;
+    private final FilterChain chain;
+    private final JobListener jobListener;
+    private final NumProcessCounter numberOfImagesProcessed;
     private final int totalImagesInJob;
-    private final JobWindow.TotalProcessAndWriteTime totalProcessAndWriteTime;
+    private final TotalProcessAndWriteTime totalProcessAndWriteTime;
+    private final JobManifest jobManifest;
+    private String cacheKey; // The ResultCache key, or null if the cache is not used
+    private boolean cached; // Whether the output image came from the ResultCache
+    private String failure; // Why a stage failed on this work unit, or null (see markFailed())
 
     /**
      * Constructor
      *
+     * @param jobId The id of the job this work unit belongs to
      * @param inputFile The input file
      * @param targetDir The target directory
-     * @param filterName The filter name
-     * @param flwvp The file list with view port
-     * @param progressBar The progress bar
+     * @param chain The filter (or chain of filters) of the job
+     * @param jobListener The listener notified when the output image is written
      * @param numProcessCounter The number of images processed
      * @param totalImagesInJob The total number of images in the job
      * @param totalProcessAndWriteTime The total process and write time
+     * @param jobManifest The progress manifest of the job
      */
-    public WorkUnit(Path inputFile, Path targetDir, String filterName, FileListWithViewPort flwvp, ProgressBar progressBar, JobWindow.NumProcessCounter numProcessCounter, int totalImagesInJob, JobWindow.TotalProcessAndWriteTime totalProcessAndWriteTime) {
+    public WorkUnit(int jobId, Path inputFile, Path targetDir, FilterChain chain, JobListener jobListener, NumProcessCounter numProcessCounter, int totalImagesInJob, TotalProcessAndWriteTime totalProcessAndWriteTime, JobManifest jobManifest) {
+        this.jobId = jobId;
         this.inputFile = inputFile;
-        this.inputImage = loadInputImage(); // Load the image once upon creation
         this.targetDir = targetDir;
-        this.filterName = filterName;
-        this.flwvp = flwvp;
-        this.progressBar = progressBar;
+        this.filterName = chain.getName();
+        this.chain = chain;
+        this.jobListener = jobListener;
         this.numberOfImagesProcessed = numProcessCounter;
         this.totalImagesInJob = totalImagesInJob;
         this.totalProcessAndWriteTime = totalProcessAndWriteTime;
+        this.jobManifest = jobManifest;
     }
 
 
 
-    //This method load the input image
-    private Image loadInputImage() {
+    /**
+     * Method to decode the input image. This is called by a reader thread
+     * rather than in the constructor, so that a work unit only carries
+     * its input path until it reaches the reader stage.
+     * The image is decoded straight into a filter-ready (TYPE_INT_RGB) BufferedImage
+     * with ImageIO, unless the JavaFX decoder is selected in the main window,
+     * in which case it goes through a JavaFX Image and SwingFXUtils.fromFXImage
+     * (for comparison purposes, see JavaFXDecoder).
+     */
+    public void loadInputImage() {
+        boolean useJavaFX = PipelineConfig.useJavaFXDecoder();
+        double startTime = System.currentTimeMillis() / 1000.0;
         try {
-            return new Image(inputFile.toUri().toURL().toString());
+            if (useJavaFX) {
+                this.inputImage = JavaFXDecoder.decode(inputFile);
+            } else {
+                BufferedImage image = ImageIO.read(inputFile.toFile());
+                if (image == null) {
+                    markFailed("could not decode the input image: unsupported format");
+                    this.inputImage = null;
+                    return;
+                }
+                this.inputImage = IntRaster.of(image).getImage();
+            }
         } catch (Exception e) {
-            System.err.println("Error loading image from " + inputFile + ": " + e.getMessage());
-            return null; // Handle error case
+            markFailed("could not decode the input image: " + e.getMessage());
+            this.inputImage = null; // Handle error case
+            return;
+        }
+        Statistics.INSTANCE.newlyDecodedImage(useJavaFX ? "JavaFX" : "ImageIO",
+                inputFile.toFile().length() / 1024.0 / 1024.0,
+                System.currentTimeMillis() / 1000.0 - startTime);
+    }
+
+    /**
+     * Method to look up the output image in the ResultCache. This is called by a reader
+     * thread before decoding the input image: on a hit, the cached output image is put
+     * in the target directory, and the work unit only goes through the other stages
+     * to be accounted for.
+     *
+     * @return true if the output image came from the cache
+     */
+    public boolean fetchFromCache() {
+        if (!PipelineConfig.useResultCache()) {
+            return false;
         }
+        Path outputFile = getOutputFile();
+        try {
+            this.cacheKey = ResultCache.key(inputFile, chain);
+            this.cached = ResultCache.fetch(this.cacheKey, outputFile);
+        } catch (IOException e) {
+            System.err.println("Result cache not used for " + inputFile + ": " + e.getMessage());
+            this.cacheKey = null;
+            this.cached = false;
+            return false;
+        }
+        Statistics.INSTANCE.newlyLookedUpCache(this.cached);
+        return this.cached;
+    }
+
+    /**
+     * Method to add the output image to the ResultCache, once the writer stage has written it
+     */
+    public void storeInCache() {
+        if (this.cacheKey != null && !this.cached) {
+            ResultCache.store(this.cacheKey, getOutputFile());
+        }
+    }
+
+    /**
+     * Method to record in the job manifest that this work unit is completed, once
+     * the writer stage has written its output image (or found it there)
+     */
+    public void markCompleted() {
+        try {
+            jobManifest.markCompleted(inputFile, getOutputFile());
+        } catch (IOException e) {
+            System.err.println("Could not record " + inputFile + " in the job manifest: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Method to record in the job manifest that this work unit failed, so that
+     * a re-run of the job retries it
+     */
+    public void recordFailure() {
+        try {
+            jobManifest.markFailed(inputFile, failure);
+        } catch (IOException e) {
+            System.err.println("Could not record " + inputFile + " in the job manifest: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Method to record that a stage failed on this work unit. The work unit still
+     * goes through the remaining stages, which skip it, so that the writer stage
+     * counts it as done (see NumProcessCounter.incrementFailed()) and the job
+     * completes. Only the first failure is kept.
+     *
+     * @param reason What went wrong
+     */
+    public void markFailed(String reason) {
+        if (this.failure == null) {
+            this.failure = reason;
+        }
+    }
+
+    //getter method to retrieve whether a stage failed on this work unit
+    public boolean isFailed() {
+        return failure != null;
+    }
+
+    //getter method to retrieve why a stage failed on this work unit (null if none did)
+    public String getFailure() {
+        return failure;
+    }
+
+    //getter method to retrieve whether the output image came from the cache
+    public boolean isCached() {
+        return cached;
+    }
+
+    //getter method to retrieve the path of the output file
+    public Path getOutputFile() {
+        return outputFileFor(targetDir, filterName, inputFile);
+    }
+
+    /**
+     * Method to name an output file: the input file name prepended with the filter name and an underscore
+     *
+     * @param targetDir The target directory
+     * @param filterName The filter name
+     * @param inputFile The input file
+     * @return The output file path
+     */
+    public static Path outputFileFor(Path targetDir, String filterName, Path inputFile) {
+        return targetDir.resolve(filterName + "_" + inputFile.getFileName());
     }
 
     //getter method to retrieve the image
-    public Image getInputImage() {
+    public BufferedImage getInputImage() {
         return inputImage;
     }
 
+    //getter method to retrieve the id of the job
+    public int getJobId() {
+        return jobId;
+    }
+
     //getter method to retrieve the target directory
     public Path getTargetDir() {
         return targetDir;
@@ -76,14 +216,14 @@ public class WorkUnit {
         return filterName;
     }
 
-    //getter method to retrieve the file list with view port
-    public FileListWithViewPort getFlwvp() {
-        return flwvp;
+    //getter method to retrieve the filter chain of the job, looked up once per job
+    public FilterChain getChain() {
+        return chain;
     }
 
-    //getter method to retrieve the progress bar
-    public ProgressBar getProgressBar() {
-        return progressBar;
+    //getter method to retrieve the listener of the job
+    public JobListener getJobListener() {
+        return jobListener;
     }
 
     //getter method to retrieve the total number of images in the job
@@ -92,12 +232,12 @@ public class WorkUnit {
     }
 
     //getter method to retrieve the Object of NumProcessCounter
-    public JobWindow.NumProcessCounter getNumberOfImagesProcessed() {
+    public NumProcessCounter getNumberOfImagesProcessed() {
         return numberOfImagesProcessed;
     }
 
     //getter method to retrieve Object of TotalProcessAndWriteTime
-    public JobWindow.TotalProcessAndWriteTime getTotalProcessAndWriteTime() {
+    public TotalProcessAndWriteTime getTotalProcessAndWriteTime() {
         return totalProcessAndWriteTime;
     }
 
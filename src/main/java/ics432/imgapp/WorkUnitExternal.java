@@ -1,11 +1,14 @@
 package ics432.imgapp;
 
-import javafx.scene.control.ProgressBar;
 import java.awt.image.BufferedImage;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 public class WorkUnitExternal extends WorkUnit {
 
@@ -14,39 +17,101 @@ public class WorkUnitExternal extends WorkUnit {
     private BufferedImage outputImage;
     private Path fileName;
     private String filterName;
-    private FileListWithViewPort flvp;
     private String commandFilterName;
+    private boolean runsInDocker; // Whether the filter is not built locally (see FilterChain.runsInDocker())
 
 
-    public WorkUnitExternal(Path inputFile, Path targetDir, String filterName, FileListWithViewPort flwvp,
-                            ProgressBar progressBar, JobWindow.NumProcessCounter numProcessCounter,
-                            int totalImagesInJob, JobWindow.TotalProcessAndWriteTime totalProcessAndWriteTime) {
-        super(inputFile, targetDir, filterName, flwvp, progressBar, numProcessCounter, totalImagesInJob, totalProcessAndWriteTime);
+    public WorkUnitExternal(int jobId, Path inputFile, Path targetDir, FilterChain chain, JobListener jobListener,
+                            NumProcessCounter numProcessCounter, int totalImagesInJob,
+                            TotalProcessAndWriteTime totalProcessAndWriteTime, JobManifest jobManifest) {
+        super(jobId, inputFile, targetDir, chain, jobListener, numProcessCounter, totalImagesInJob,
+                totalProcessAndWriteTime, jobManifest);
 
         this.inputFile = inputFile;
         this.targetDir = targetDir;
         this.fileName = inputFile.getFileName();
-        this.filterName = filterName;
-        this.commandFilterName = filterName;
-        switch (this.filterName) {
-            case "DPEdge":
-                this.commandFilterName = "jpegedge";
-                break;
-            case "DPFunk1":
-                this.commandFilterName = "jpegfunk1";
-                break;
-            case "DPFunk2":
-                this.commandFilterName = "jpegfunk2";
-                break;
-            default:
-                throw new RuntimeException("Unknown filter " + filterName);
+        this.filterName = chain.getName();
+        if (!chain.isExternal()) {
+            throw new IllegalArgumentException(chain.getName() + " is not an external filter");
         }
-        this.flvp = flwvp;
+        this.commandFilterName = chain.getSteps().getFirst().getExternalCommand();
+        this.runsInDocker = chain.runsInDocker();
 
     }
 
-    public void processImage(){
-        int numThreads = MainWindow.getDPThreadCount();
+    /**
+     * @param command The filter program name
+     * @return true if the filter can be called in-process (see NativeFilterLibrary)
+     */
+    private static boolean hasNativeLibrary(String command) {
+        try {
+            return NativeFilterLibrary.isAvailable(command);
+        } catch (LinkageError e) {
+            // The FFM API is a preview API in Java 21: the class cannot be
+            // loaded unless the app runs with --enable-preview
+            return false;
+        }
+    }
+
+    /**
+     * @param command The filter program name
+     * @return true if the filter can run on decoded pixels (in-process or in a local worker process)
+     */
+    public static boolean runsOnPixels(String command) {
+        return hasNativeLibrary(command) || ExternalFilterPool.findExecutable(command) != null;
+    }
+
+    /**
+     * Method to apply an external filter to decoded pixels: in-process if the filter
+     * is built as a shared library, and in a pooled local worker process otherwise
+     *
+     * @param command The filter program name (see runsOnPixels())
+     * @param input The input pixels
+     * @return the output pixels
+     * @throws IOException If the native call or the worker process failed
+     */
+    public static IntRaster applyToPixels(String command, IntRaster input) throws IOException {
+        int numThreads = PipelineConfig.getDPThreadCount();
+        if (hasNativeLibrary(command)) {
+            return NativeFilterLibrary.apply(command, input, numThreads);
+        }
+        Path executable = ExternalFilterPool.findExecutable(command);
+        if (executable == null) {
+            throw new IOException(command + " is not built locally");
+        }
+        return ExternalFilterPool.processRaw(executable, input, numThreads);
+    }
+
+    /**
+     * With Docker, the filter program reads the input file itself, so there is
+     * nothing to decode in the reader stage. Otherwise, the filter works on
+     * pixels decoded here, like the in-house filters.
+     */
+    @Override
+    public void loadInputImage() {
+        if (!runsInDocker()) {
+            super.loadInputImage();
+        }
+    }
+
+    /**
+     * Method to apply the external filter. If the filter is built as a shared
+     * library, it is called in-process on the decoded image. Otherwise, if the
+     * filter program is built locally, the decoded pixels are handed to a
+     * long-lived worker process from the ExternalFilterPool through shared
+     * memory. In both cases, the writer stage encodes the output image.
+     * Otherwise, the filter is run with "docker run" for this image only,
+     * and writes the output file itself.
+     *
+     * @throws IOException If the filter failed (the caller marks the work unit as failed)
+     */
+    public void processImage() throws IOException {
+        int numThreads = PipelineConfig.getDPThreadCount();
+        if (!runsInDocker()) {
+            setOutputImage(applyToPixels(this.commandFilterName, IntRaster.of(getInputImage())).getImage());
+            return;
+        }
+
         String stringNumThread = Integer.toString(numThreads);
         List<String> args = new ArrayList<>();
         args.add("docker");
@@ -62,20 +127,114 @@ public class WorkUnitExternal extends WorkUnit {
         args.add("/output/"+this.filterName+"_" + fileName);
         args.add(stringNumThread);
         ProcessBuilder pb = new ProcessBuilder(args);
+        // The filter program rewrites the output file in place, which may be a hard link
+        // to a ResultCache entry (and a stale output must not be taken for a new one)
+        Files.deleteIfExists(getOutputFile());
+        runProcess(pb);
+    }
 
+    /**
+     * Method to run a filter program and wait for it
+     *
+     * @param pb The process to run
+     * @throws IOException If the process could not be run, or failed
+     */
+    private static void runProcess(ProcessBuilder pb) throws IOException {
+        Process p = pb.inheritIO().start(); // The inheritIO() is important!
         try {
-            Process p = pb.inheritIO().start(); // The inheritIO() is important!
             int status = p.waitFor();
             if (status != 0) {
-                // Ok to just abort if some error
-                System.err.println("Processbuilder-created process failed! [FATAL]");
-                System.exit(0);
+                throw new IOException("Processbuilder-created process failed with status " + status);
             }
-        } catch (InterruptedException ignore) {
+        } catch (InterruptedException e) {
+            p.destroy();
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for the filter program", e);
+        }
+    }
+
+    /**
+     * @return true if the filter is not built locally and must be run with Docker
+     */
+    public boolean runsInDocker() {
+        return this.runsInDocker;
+    }
+
+    /**
+     * Method to apply the external filter to a chunk of work units of the same job.
+     * With a locally built filter, the units go through a pooled worker process
+     * one after the other (chunks are only formed for Docker, see runsInDocker()).
+     * Otherwise, the whole chunk is processed by a single "docker run" in manifest
+     * mode, instead of one container per image. Units on which the filter failed
+     * are marked as failed. In manifest mode, the container fails if any of its
+     * images failed, so only the units whose output file is missing are marked
+     * (their output files are deleted before the container runs, so that a stale
+     * output from an earlier run is not taken for a new one).
+     *
+     * @param chunk The work units (all WorkUnitExternal, with the same filter and target directory)
+     */
+    public static void processChunk(List<WorkUnit> chunk) {
+        WorkUnitExternal first = (WorkUnitExternal) chunk.getFirst();
+        if (chunk.size() == 1 || !first.runsInDocker()) {
+            for (WorkUnit unit : chunk) {
+                try {
+                    ((WorkUnitExternal) unit).processImage();
+                } catch (IOException e) {
+                    unit.markFailed("external filter " + unit.getFilterName() + " failed: " + e.getMessage());
+                }
+            }
+            return;
+        }
+
+        int numThreads = PipelineConfig.getDPThreadCount();
+        // Each distinct input directory is mounted as /input<i> in the container
+        Map<Path, String> inputMounts = new LinkedHashMap<>();
+        List<String> manifestLines = new ArrayList<>();
+        for (WorkUnit unit : chunk) {
+            WorkUnitExternal external = (WorkUnitExternal) unit;
+            String mount = inputMounts.computeIfAbsent(external.inputFile.getParent(), k -> "/input" + inputMounts.size());
+            manifestLines.add(mount + "/" + external.fileName + "\t/output/" + external.filterName + "_" + external.fileName);
+        }
+
+        Path manifest = null;
+        try {
+            for (WorkUnit unit : chunk) {
+                Files.deleteIfExists(unit.getOutputFile()); // Same as in processImage()
+            }
+            manifest = Files.createTempFile(first.targetDir, ".manifest-", ".txt");
+            Files.write(manifest, manifestLines, StandardCharsets.UTF_8);
+
+            List<String> args = new ArrayList<>();
+            args.add("docker");
+            args.add("run");
+            args.add("--rm");
+            for (Map.Entry<Path, String> entry : inputMounts.entrySet()) {
+                args.add("-v");
+                args.add(entry.getKey() + ":" + entry.getValue());
+            }
+            args.add("-v");
+            args.add(first.targetDir + ":/output");
+            args.add("ics432imgapp_c_filters");
+            args.add(first.commandFilterName);
+            args.add("--manifest");
+            args.add("/output/" + manifest.getFileName());
+            args.add(Integer.toString(numThreads));
+            ProcessBuilder pb = new ProcessBuilder(args);
+            runProcess(pb);
         } catch (IOException e) {
-            // Ok to just abort if some error
-            System.err.println("Processbuilder-created process failed! [FATAL]");
-            System.exit(0);
+            // The other units of the chunk were filtered, and pass through as completed
+            for (WorkUnit unit : chunk) {
+                if (!Files.exists(unit.getOutputFile())) {
+                    unit.markFailed("external filter " + unit.getFilterName() + " failed: " + e.getMessage());
+                }
+            }
+        } finally {
+            if (manifest != null) {
+                try {
+                    Files.deleteIfExists(manifest);
+                } catch (IOException ignore) {
+                }
+            }
         }
     }
 }